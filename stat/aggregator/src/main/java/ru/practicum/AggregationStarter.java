@@ -3,58 +3,140 @@ package ru.practicum;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.OffsetAndMetadata;
 import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.errors.WakeupException;
 import org.springframework.stereotype.Component;
+import ru.practicum.config.AggregatorProperties;
 import ru.practicum.config.KafkaConfig;
-import ru.practicum.ewm.stats.avro.EventSimilarityAvro;
 import ru.practicum.ewm.stats.avro.UserActionAvro;
+import ru.practicum.service.EmissionBuffer;
 import ru.practicum.service.SimilarityService;
+import ru.practicum.service.SimilarityUpdate;
+import ru.practicum.state.LongDoubleMap;
+import ru.practicum.state.SimilarityState;
+import ru.practicum.state.SnapshotStore;
+import ru.practicum.util.SampledLogger;
 
+import java.io.UncheckedIOException;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 @Slf4j
 @Component
 @RequiredArgsConstructor
 public class AggregationStarter {
+    private static final SampledLogger SAMPLED_LOG = new SampledLogger(log, Duration.ofSeconds(10));
+
     private final SimilarityService similarityService;
     private final Consumer<Long, UserActionAvro> consumer;
     private final KafkaConfig kafkaConfig;
+    private final SimilarityState state;
+    private final SnapshotStore snapshotStore;
+    private final AggregatorProperties aggregatorProperties;
     private final Map<TopicPartition, OffsetAndMetadata> currentOffsets = new HashMap<>();
+    private final Map<TopicPartition, OffsetAndMetadata> snapshotOffsets = new HashMap<>();
+    private final EmissionBuffer emissionBuffer = new EmissionBuffer();
+    private long nextSnapshotAt;
+    private long nextDecayAt;
+    private boolean inTransaction;
 
     public void start() {
+        if (isExactlyOnce() && !isSnapshotEnabled()) {
+            throw new IllegalStateException(
+                    "Режим exactly-once требует снимков состояния: включите aggregator.snapshot.enabled");
+        }
         Runtime.getRuntime().addShutdownHook(new Thread(consumer::wakeup));
+        List<ExecutorService> workers = createWorkers();
+        List<SimilarityUpdate> restoreRemovals = new ArrayList<>();
+        Map<TopicPartition, OffsetAndMetadata> pendingSeeks = restoreSnapshot(restoreRemovals);
+        if (isExactlyOnce()) {
+            similarityService.initTransactions();
+        }
 
         try {
-            consumer.subscribe(List.of(kafkaConfig.getKafkaProperties().getUserActionTopic()));
+            if (!restoreRemovals.isEmpty()) {
+                emitRemovals(restoreRemovals);
+                log.info("Отправлено {} удалений пар, не поместившихся в списки соседей из снимка",
+                        restoreRemovals.size());
+            }
+            consumer.subscribe(List.of(kafkaConfig.getKafkaProperties().getUserActionTopic()),
+                    new ConsumerRebalanceListener() {
+                        @Override
+                        public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+                        }
+
+                        @Override
+                        public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+                            for (TopicPartition partition : partitions) {
+                                OffsetAndMetadata offset = pendingSeeks.remove(partition);
+                                if (offset != null) {
+                                    log.info("Продолжаем чтение {} с оффсета {} из снимка", partition, offset.offset());
+                                    consumer.seek(partition, offset);
+                                }
+                            }
+                        }
+                    });
             while (true) {
                 ConsumerRecords<Long, UserActionAvro> records = consumer
                         .poll(Duration.ofMillis(kafkaConfig.getKafkaProperties().getConsumerAttemptTimeout()));
-                int count = 0;
-                for (ConsumerRecord<Long, UserActionAvro> record : records) {
-                    log.info("UserActionAvro got from consumer: {}", record);
-                    handleRecord(record);
-                    manageOffsets(record, count, consumer);
-                    count++;
+                if (isExactlyOnce() && !records.isEmpty()) {
+                    similarityService.beginTransaction();
+                    inTransaction = true;
+                }
+                if (workers.isEmpty()) {
+                    int count = 0;
+                    for (ConsumerRecord<Long, UserActionAvro> record : records) {
+                        SAMPLED_LOG.info("UserActionAvro got from consumer: {}", record);
+                        handleRecord(record);
+                        manageOffsets(record, count, consumer);
+                        count++;
+                    }
+                    if ((aggregatorProperties.isCoalesceEmissions() || isExactlyOnce()) && count > 0) {
+                        completeBatch();
+                    }
+                } else if (!records.isEmpty()) {
+                    handleInShards(records, workers);
+                    completeBatch();
+                }
+                if (state.isDecayEnabled() && System.currentTimeMillis() >= nextDecayAt) {
+                    applyDecay();
+                    nextDecayAt = System.currentTimeMillis()
+                            + aggregatorProperties.getDecay().getSweepInterval().toMillis();
+                }
+                if (isSnapshotEnabled() && System.currentTimeMillis() >= nextSnapshotAt) {
+                    saveSnapshot();
                 }
             }
 
         } catch (WakeupException ignores) {
-
+            if (isSnapshotEnabled()) {
+                saveSnapshot();
+            }
         } catch (Exception e) {
             log.error("Ошибка во время обработки событий от датчиков", e);
+            abortTransaction();
         } finally {
 
             try {
-                consumer.commitSync(currentOffsets);
+                if (!isExactlyOnce()) {
+                    emitBuffered();
+                    consumer.commitSync(currentOffsets);
+                }
 
             } finally {
+                workers.forEach(ExecutorService::shutdownNow);
                 log.info("Закрываем консьюмер");
                 consumer.close();
                 log.info("Отправляем все сообщения из буфера продюсера");
@@ -65,11 +147,177 @@ public class AggregationStarter {
         }
     }
 
-    private void handleRecord(ConsumerRecord<Long, UserActionAvro> consumerRecord) throws InterruptedException {
-        List<EventSimilarityAvro> eventSimilarityList = similarityService.updateSimilarity(consumerRecord.value());
-        for (EventSimilarityAvro eventSimilarity : eventSimilarityList) {
-            similarityService.collectEventSimilarity(eventSimilarity);
+    private boolean isExactlyOnce() {
+        return aggregatorProperties.isExactlyOnce();
+    }
+
+    private boolean isSnapshotEnabled() {
+        return aggregatorProperties.getSnapshot().isEnabled();
+    }
+
+    private Map<TopicPartition, OffsetAndMetadata> restoreSnapshot(List<SimilarityUpdate> removals) {
+        if (!isSnapshotEnabled()) {
+            return new HashMap<>();
+        }
+        scheduleNextSnapshot();
+        Map<TopicPartition, OffsetAndMetadata> restored = snapshotStore
+                .load(state, pairKey -> removals.add(SimilarityUpdate.removal(pairKey)))
+                .orElseGet(Map::of);
+        snapshotOffsets.putAll(restored);
+        return new HashMap<>(restored);
+    }
+
+    /**
+     * The producer is flushed first, so the snapshot never records offsets whose similarity updates are
+     * still in its buffer. A failed save is logged and retried at the next interval; the previous
+     * snapshot stays in place, so processing goes on.
+     */
+    private void saveSnapshot() {
+        similarityService.flush();
+        snapshotOffsets.putAll(currentOffsets);
+        try {
+            snapshotStore.save(state, snapshotOffsets);
+        } catch (UncheckedIOException e) {
+            log.error("Снимок состояния не сохранён, повторим через {}",
+                    aggregatorProperties.getSnapshot().getInterval(), e);
+        }
+        scheduleNextSnapshot();
+    }
+
+    private void scheduleNextSnapshot() {
+        nextSnapshotAt = System.currentTimeMillis() + aggregatorProperties.getSnapshot().getInterval().toMillis();
+    }
+
+    private List<ExecutorService> createWorkers() {
+        if (state.shardCount() == 1) {
+            return List.of();
+        }
+        List<ExecutorService> workers = new ArrayList<>(state.shardCount());
+        for (int i = 0; i < state.shardCount(); i++) {
+            String name = "aggregator-worker-" + i;
+            workers.add(Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, name)));
+        }
+        log.info("Агрегация запущена в {} потоках", workers.size());
+        return workers;
+    }
+
+    /**
+     * Workers only apply the actions of their shard to the weights. The pairs they touched are scored
+     * afterwards on this thread from the final sums, so each pair is emitted once with a score that
+     * includes every shard's changes, and top-neighbour removals and re-adds are emitted in order.
+     */
+    private void handleInShards(ConsumerRecords<Long, UserActionAvro> records, List<ExecutorService> workers)
+            throws InterruptedException, ExecutionException {
+        List<List<ConsumerRecord<Long, UserActionAvro>>> batches = new ArrayList<>(workers.size());
+        for (int i = 0; i < workers.size(); i++) {
+            batches.add(new ArrayList<>());
+        }
+        for (ConsumerRecord<Long, UserActionAvro> record : records) {
+            if (record.value() != null) {
+                batches.get(state.shardOf(record.value().getUserId())).add(record);
+            }
+        }
+
+        List<Future<LongDoubleMap>> results = new ArrayList<>(workers.size());
+        for (int i = 0; i < workers.size(); i++) {
+            List<ConsumerRecord<Long, UserActionAvro>> batch = batches.get(i);
+            if (!batch.isEmpty()) {
+                results.add(workers.get(i).submit(() -> {
+                    LongDoubleMap touchedPairs = new LongDoubleMap();
+                    for (ConsumerRecord<Long, UserActionAvro> record : batch) {
+                        similarityService.updateWeights(record.value(), touchedPairs);
+                    }
+                    return touchedPairs;
+                }));
+            }
+        }
+        LongDoubleMap touchedPairs = new LongDoubleMap();
+        for (Future<LongDoubleMap> result : results) {
+            result.get().forEach(touchedPairs::put);
+        }
+        emit(similarityService.scorePairs(touchedPairs));
+
+        for (TopicPartition partition : records.partitions()) {
+            List<ConsumerRecord<Long, UserActionAvro>> partitionRecords = records.records(partition);
+            long lastOffset = partitionRecords.get(partitionRecords.size() - 1).offset();
+            currentOffsets.put(partition, new OffsetAndMetadata(lastOffset + 1));
+        }
+    }
+
+    /**
+     * Sends the similarities buffered for the poll batch and commits its offsets. In exactly-once mode
+     * both go into one producer transaction, so a crash either publishes the whole batch or none of it.
+     */
+    private void completeBatch() {
+        emitBuffered();
+        if (isExactlyOnce()) {
+            similarityService.commitTransaction(currentOffsets, consumer.groupMetadata());
+            inTransaction = false;
+        } else {
+            similarityService.flush();
+            commitOffsets();
+        }
+    }
+
+    /**
+     * Runs the decay sweep and emits tombstones for the evicted pairs, in their own transaction in
+     * exactly-once mode, so the analyzer drops the rows of pairs the aggregator no longer tracks.
+     */
+    private void applyDecay() {
+        List<SimilarityUpdate> removals = new ArrayList<>();
+        state.applyDecay(pairKey -> removals.add(SimilarityUpdate.removal(pairKey)));
+        emitRemovals(removals);
+        log.debug("Отправлено {} удалений пар, вытесненных затуханием", removals.size());
+    }
+
+    /**
+     * Sends removals that do not come from a poll batch, in their own transaction in exactly-once mode.
+     */
+    private void emitRemovals(List<SimilarityUpdate> removals) {
+        if (removals.isEmpty()) {
+            return;
+        }
+        if (isExactlyOnce()) {
+            similarityService.beginTransaction();
+            inTransaction = true;
+        }
+        emit(removals);
+        completeBatch();
+    }
+
+    private void abortTransaction() {
+        if (!inTransaction) {
+            return;
+        }
+        inTransaction = false;
+        try {
+            similarityService.abortTransaction();
+        } catch (Exception e) {
+            log.warn("Не удалось прервать транзакцию продюсера", e);
+        }
+    }
+
+    private void handleRecord(ConsumerRecord<Long, UserActionAvro> consumerRecord) {
+        emit(similarityService.updateSimilarity(consumerRecord.value()));
+    }
+
+    private void emit(List<SimilarityUpdate> updates) {
+        for (SimilarityUpdate update : updates) {
+            if (aggregatorProperties.isCoalesceEmissions()) {
+                emissionBuffer.add(update);
+            } else {
+                similarityService.collectEventSimilarity(update);
+            }
+        }
+    }
+
+    private void emitBuffered() {
+        long updates = emissionBuffer.getUpdates();
+        List<SimilarityUpdate> similarities = emissionBuffer.drain();
+        for (SimilarityUpdate update : similarities) {
+            similarityService.collectEventSimilarity(update);
         }
+        log.debug("Отправлено {} сходств вместо {} обновлений", similarities.size(), updates);
     }
 
     private void manageOffsets(ConsumerRecord<Long, UserActionAvro> consumerRecord, int count, Consumer<Long, UserActionAvro> consumer) {
@@ -78,12 +326,16 @@ public class AggregationStarter {
                 new OffsetAndMetadata(consumerRecord.offset() + 1)
         );
 
-        if (count % 10 == 0) {
-            consumer.commitAsync(currentOffsets, (offsets, exception) -> {
-                if (exception != null) {
-                    log.warn("Ошибка во время фиксации оффсетов: {}", offsets, exception);
-                }
-            });
+        if (!aggregatorProperties.isCoalesceEmissions() && !isExactlyOnce() && count % 10 == 0) {
+            commitOffsets();
         }
     }
+
+    private void commitOffsets() {
+        consumer.commitAsync(currentOffsets, (offsets, exception) -> {
+            if (exception != null) {
+                log.warn("Ошибка во время фиксации оффсетов: {}", offsets, exception);
+            }
+        });
+    }
 }
@@ -1,5 +1,6 @@
 package ru.practicum.avro;
 
+import org.apache.avro.Schema;
 import org.apache.avro.io.BinaryEncoder;
 import org.apache.avro.io.DatumWriter;
 import org.apache.avro.io.EncoderFactory;
@@ -10,25 +11,39 @@ import org.apache.kafka.common.serialization.Serializer;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class AvroSerializer implements Serializer<SpecificRecordBase> {
+    private static final int INITIAL_BUFFER_SIZE = 256;
+    private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
 
     private final EncoderFactory encoderFactory = EncoderFactory.get();
-    private BinaryEncoder encoder;
+    private final Map<Schema, DatumWriter<SpecificRecordBase>> writers = new ConcurrentHashMap<>();
+    private final ThreadLocal<EncodingBuffer> buffers = ThreadLocal.withInitial(EncodingBuffer::new);
 
     public byte[] serialize(String topic, SpecificRecordBase data) {
-        try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
-            byte[] result = null;
-            encoder = encoderFactory.binaryEncoder(out, encoder);
-            if (data != null) {
-                DatumWriter<SpecificRecordBase> writer = new SpecificDatumWriter<>(data.getSchema());
-                writer.write(data, encoder);
-                encoder.flush();
-                result = out.toByteArray();
-            }
-            return result;
+        if (data == null) {
+            return null;
+        }
+        EncodingBuffer buffer = buffers.get();
+        try {
+            buffer.out.reset();
+            buffer.encoder = encoderFactory.binaryEncoder(buffer.out, buffer.encoder);
+            writers.computeIfAbsent(data.getSchema(), SpecificDatumWriter::new).write(data, buffer.encoder);
+            buffer.encoder.flush();
+            return buffer.out.toByteArray();
         } catch (IOException ex) {
             throw new SerializationException("Ошибка сериализации данных для топика [" + topic + "]", ex);
+        } finally {
+            if (buffer.out.size() > MAX_RETAINED_BUFFER_SIZE) {
+                buffers.remove();
+            }
         }
     }
-}
\ No newline at end of file
+
+    private static final class EncodingBuffer {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+        private BinaryEncoder encoder;
+    }
+}
@@ -9,9 +9,15 @@ import org.apache.avro.specific.SpecificRecordBase;
 import org.apache.kafka.common.errors.SerializationException;
 import org.apache.kafka.common.serialization.Deserializer;
 
+import java.util.Map;
+
 public class BaseAvroDeserializer<T extends SpecificRecordBase> implements Deserializer<T> {
+    public static final String REUSE_DECODER_CONFIG = "avro.deserializer.reuse.decoder";
+
     private final DecoderFactory decoderFactory;
     private final DatumReader<T> datumReader;
+    private final ThreadLocal<BinaryDecoder> decoders = new ThreadLocal<>();
+    private boolean reuseDecoder;
 
     public BaseAvroDeserializer(Schema schema) {
         this(DecoderFactory.get(), schema);
@@ -22,11 +28,21 @@ public class BaseAvroDeserializer<T extends SpecificRecordBase> implements Deser
         this.datumReader =  new SpecificDatumReader<>(schema);
     }
 
+    @Override
+    public void configure(Map<String, ?> configs, boolean isKey) {
+        Object reuse = configs.get(REUSE_DECODER_CONFIG);
+        reuseDecoder = reuse != null && Boolean.parseBoolean(reuse.toString());
+    }
+
     @Override
     public T deserialize(String topic, byte[] data) {
         try {
             if (data != null) {
-                BinaryDecoder decoder = decoderFactory.binaryDecoder(data, null);
+                if (!reuseDecoder) {
+                    return datumReader.read(null, decoderFactory.binaryDecoder(data, null));
+                }
+                BinaryDecoder decoder = decoderFactory.binaryDecoder(data, decoders.get());
+                decoders.set(decoder);
                 return datumReader.read(null, decoder);
             }
             return null;
@@ -34,4 +50,4 @@ public class BaseAvroDeserializer<T extends SpecificRecordBase> implements Deser
             throw new SerializationException("Ошибка десереализации данных из топика [" + topic + "]", e);
         }
     }
-}
\ No newline at end of file
+}
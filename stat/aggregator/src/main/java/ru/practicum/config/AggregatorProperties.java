@@ -0,0 +1,41 @@
+package ru.practicum.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "aggregator")
+public class AggregatorProperties {
+    private int workers = 1;
+    private boolean coalesceEmissions;
+    private int topK;
+    /**
+     * Commits consumer offsets in the producer transaction. Requires {@code snapshot.enabled}: the
+     * weights are only in memory, and without a snapshot a restart would resume from the committed
+     * offsets with an empty state.
+     */
+    private boolean exactlyOnce;
+    private Snapshot snapshot = new Snapshot();
+    private Decay decay = new Decay();
+
+    @Getter
+    @Setter
+    public static class Snapshot {
+        private boolean enabled;
+        private String directory = "snapshots";
+        private Duration interval = Duration.ofMinutes(5);
+    }
+
+    @Getter
+    @Setter
+    public static class Decay {
+        private boolean enabled;
+        private Duration halfLife = Duration.ofDays(30);
+        private double evictionThreshold = 0.01;
+        private Duration sweepInterval = Duration.ofMinutes(10);
+    }
+}
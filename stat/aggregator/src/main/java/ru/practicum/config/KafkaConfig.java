@@ -11,6 +11,7 @@ import org.apache.kafka.clients.producer.ProducerConfig;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import ru.practicum.avro.BaseAvroDeserializer;
 import ru.practicum.ewm.stats.avro.UserActionAvro;
 
 import java.util.Properties;
@@ -27,12 +28,25 @@ public class KafkaConfig {
     }
 
     @Bean
-    public Producer<Long, SpecificRecordBase> producer() {
+    public Producer<Long, SpecificRecordBase> producer(AggregatorProperties aggregatorProperties) {
         Properties properties = new Properties();
         properties.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, kafkaProperties.getBootstrapServers());
         properties.put(ProducerConfig.CLIENT_ID_CONFIG, kafkaProperties.getProducerClientIdConfig());
         properties.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, kafkaProperties.getProducerKeySerializer());
         properties.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, kafkaProperties.getProducerValueSerializer());
+        putIfPresent(properties, ProducerConfig.LINGER_MS_CONFIG, kafkaProperties.getProducerLingerMs());
+        putIfPresent(properties, ProducerConfig.BATCH_SIZE_CONFIG, kafkaProperties.getProducerBatchSize());
+        putIfPresent(properties, ProducerConfig.COMPRESSION_TYPE_CONFIG, kafkaProperties.getProducerCompressionType());
+        putIfPresent(properties, ProducerConfig.ACKS_CONFIG, kafkaProperties.getProducerAcks());
+        putIfPresent(properties, ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG,
+                kafkaProperties.getProducerEnableIdempotence());
+        putIfPresent(properties, ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION,
+                kafkaProperties.getProducerMaxInFlightRequestsPerConnection());
+        if (aggregatorProperties.isExactlyOnce()) {
+            properties.put(ProducerConfig.TRANSACTIONAL_ID_CONFIG, kafkaProperties.getProducerTransactionalId() != null
+                    ? kafkaProperties.getProducerTransactionalId()
+                    : kafkaProperties.getProducerClientIdConfig());
+        }
         log.info("properties for producer are: {}", properties);
         return new KafkaProducer<>(properties);
     }
@@ -46,6 +60,13 @@ public class KafkaConfig {
         props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, kafkaProperties.getConsumerKeyDeserializer());
         props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, kafkaProperties.getConsumerValueDeserializer());
         props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, kafkaProperties.getConsumerEnableAutoCommit());
+        props.put(BaseAvroDeserializer.REUSE_DECODER_CONFIG, kafkaProperties.isConsumerReuseDecoder());
         return new KafkaConsumer<>(props);
     }
+
+    private static void putIfPresent(Properties properties, String key, Object value) {
+        if (value != null) {
+            properties.put(key, value);
+        }
+    }
 }
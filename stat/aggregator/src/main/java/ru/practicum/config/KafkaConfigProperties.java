@@ -13,6 +13,13 @@ public class KafkaConfigProperties {
     private String producerClientIdConfig;
     private String producerKeySerializer;
     private String producerValueSerializer;
+    private Integer producerLingerMs;
+    private Integer producerBatchSize;
+    private String producerCompressionType;
+    private String producerAcks;
+    private Boolean producerEnableIdempotence;
+    private Integer producerMaxInFlightRequestsPerConnection;
+    private String producerTransactionalId;
 
     private String consumerGroupId;
     private String consumerClientIdConfig;
@@ -20,6 +27,7 @@ public class KafkaConfigProperties {
     private String consumerValueDeserializer;
     private long consumerAttemptTimeout;
     private String consumerEnableAutoCommit;
+    private boolean consumerReuseDecoder;
 
     private String userActionTopic;
     private String eventsSimilarityTopic;
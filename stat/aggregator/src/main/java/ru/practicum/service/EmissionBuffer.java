@@ -0,0 +1,31 @@
+package ru.practicum.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps only the latest similarity or removal per pair of events until the buffer is drained,
+ * so a pair updated many times within one poll is sent once. Used only from the poll thread.
+ */
+public class EmissionBuffer {
+    private final Map<Long, SimilarityUpdate> latest = new HashMap<>();
+    private long updates;
+
+    public void add(SimilarityUpdate update) {
+        latest.put(update.getPairKey(), update);
+        updates++;
+    }
+
+    public long getUpdates() {
+        return updates;
+    }
+
+    public List<SimilarityUpdate> drain() {
+        List<SimilarityUpdate> drained = new ArrayList<>(latest.values());
+        latest.clear();
+        updates = 0;
+        return drained;
+    }
+}
@@ -1,18 +1,42 @@
 package ru.practicum.service;
 
-import ru.practicum.ewm.stats.avro.EventSimilarityAvro;
+import org.apache.kafka.clients.consumer.ConsumerGroupMetadata;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
 import ru.practicum.ewm.stats.avro.UserActionAvro;
+import ru.practicum.state.LongDoubleMap;
 
 import java.util.List;
+import java.util.Map;
 
 public interface SimilarityService {
 
-    List<EventSimilarityAvro> updateSimilarity(UserActionAvro userAction);
+    List<SimilarityUpdate> updateSimilarity(UserActionAvro userAction);
 
-    void collectEventSimilarity(EventSimilarityAvro eventSimilarityAvro);
+    /**
+     * Applies the action to the weights without scoring; every pair whose min-sum changed is added to
+     * {@code touchedPairs}. Used by shard workers, whose pairs are then scored by {@link #scorePairs}.
+     */
+    void updateWeights(UserActionAvro userAction, LongDoubleMap touchedPairs);
+
+    /**
+     * Scores the pairs from the current sums. Must be called by a single thread once all updates of
+     * the batch are applied, so the emitted score of each pair reflects every shard's changes.
+     */
+    List<SimilarityUpdate> scorePairs(LongDoubleMap touchedPairs);
+
+    void collectEventSimilarity(SimilarityUpdate update);
 
     default void close() {
     }
 
     void flush();
+
+    void initTransactions();
+
+    void beginTransaction();
+
+    void commitTransaction(Map<TopicPartition, OffsetAndMetadata> offsets, ConsumerGroupMetadata groupMetadata);
+
+    void abortTransaction();
 }
@@ -1,110 +1,127 @@
 package ru.practicum.service;
 
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.avro.specific.SpecificRecordBase;
+import org.apache.kafka.clients.consumer.ConsumerGroupMetadata;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
 import org.apache.kafka.clients.producer.Producer;
 import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
 import org.springframework.stereotype.Service;
+import ru.practicum.config.AggregatorProperties;
 import ru.practicum.config.KafkaConfig;
+import ru.practicum.ewm.stats.PairKey;
 import ru.practicum.ewm.stats.avro.ActionTypeAvro;
 import ru.practicum.ewm.stats.avro.EventSimilarityAvro;
 import ru.practicum.ewm.stats.avro.UserActionAvro;
+import ru.practicum.state.LongDoubleMap;
+import ru.practicum.state.SimilarityState;
+import ru.practicum.util.SampledLogger;
 
+import java.time.Duration;
 import java.time.Instant;
-import java.util.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
 
 @Service
 @RequiredArgsConstructor
 @Slf4j
-public class SimilarityServiceImpl implements SimilarityService {
+public class SimilarityServiceImpl implements SimilarityService, MeterBinder {
+    private static final SampledLogger SAMPLED_LOG = new SampledLogger(log, Duration.ofSeconds(10));
+
+    private final LongAdder processedActions = new LongAdder();
+    private final LongAdder calculatedScores = new LongAdder();
     private final Producer<Long, SpecificRecordBase> producer;
     private final KafkaConfig kafkaConfig;
+    private final AggregatorProperties aggregatorProperties;
 
-    private final Map<Long, Map<Long, Double>> eventUserWeights = new HashMap<>();
-    private final Map<Long, Double> eventTotalWeights = new HashMap<>();
-    private final Map<Long, Map<Long, Double>> pairMinWeights = new HashMap<>();
+    private final SimilarityState state;
 
     @Override
-    public List<EventSimilarityAvro> updateSimilarity(UserActionAvro userAction) {
-        log.info("Processing action for user {} and event {}",
-                userAction.getUserId(), userAction.getEventId());
+    public List<SimilarityUpdate> updateSimilarity(UserActionAvro userAction) {
+        List<SimilarityUpdate> results = new ArrayList<>();
+        applyAction(userAction, (firstEvent, secondEvent, pairMinWeight) ->
+                scorePair(firstEvent, secondEvent, pairMinWeight, results));
+        return results;
+    }
 
-        List<EventSimilarityAvro> results = new ArrayList<>();
-        Long eventId = userAction.getEventId();
-        Long userId = userAction.getUserId();
-        double newWeight = getWeightByActionType(userAction.getActionType());
+    @Override
+    public void updateWeights(UserActionAvro userAction, LongDoubleMap touchedPairs) {
+        applyAction(userAction, (firstEvent, secondEvent, pairMinWeight) ->
+                touchedPairs.put(PairKey.pack(firstEvent, secondEvent), pairMinWeight));
+    }
 
-        log.debug("Received weight: {} for event: {}, user: {}", newWeight, eventId, userId);
+    @Override
+    public List<SimilarityUpdate> scorePairs(LongDoubleMap touchedPairs) {
+        List<SimilarityUpdate> results = new ArrayList<>();
+        touchedPairs.forEach((pairKey, ignored) -> {
+            long firstEvent = PairKey.first(pairKey);
+            long secondEvent = PairKey.second(pairKey);
+            scorePair(firstEvent, secondEvent, state.getPairMinWeight(firstEvent, secondEvent), results);
+        });
+        return results;
+    }
 
-        eventUserWeights.putIfAbsent(eventId, new HashMap<>());
-        double currentWeight = eventUserWeights.get(eventId).getOrDefault(userId, 0.0);
-        log.debug("Current weight: {} for event: {}, user: {}", currentWeight, eventId, userId);
+    /**
+     * Applies the action to the user weight, the event total and the min-sums of every pair it forms with
+     * other events of the user, and reports each updated pair with its new min-sum.
+     */
+    private void applyAction(UserActionAvro userAction, PairUpdateConsumer updatedPairs) {
+        processedActions.increment();
+        SAMPLED_LOG.info("Processing action {}", userAction);
+
+        long eventId = userAction.getEventId();
+        long userId = userAction.getUserId();
+        if (!PairKey.fits(eventId)) {
+            log.warn("Действие пропущено: идентификатор события {} не помещается в ключ пары", eventId);
+            return;
+        }
+        double newWeight = state.toStoredWeight(getWeightByActionType(userAction.getActionType()),
+                userAction.getTimestamp().toEpochMilli());
 
+        double currentWeight = state.getUserWeight(eventId, userId);
         if (newWeight <= currentWeight) {
-            log.debug("Weight not increased, skipping processing");
-            return results;
+            return;
         }
 
-        eventUserWeights.get(eventId).put(userId, newWeight);
-        log.debug("Updated user weight to: {} for event: {}, user: {}", newWeight, eventId, userId);
-
-        double deltaWeight = newWeight - currentWeight;
-        double newTotalWeight = eventTotalWeights.merge(eventId, deltaWeight, Double::sum);
-        log.debug("Updated total weight for event {}: {}", eventId, newTotalWeight);
+        state.putUserWeight(eventId, userId, newWeight);
+        state.addTotalWeight(eventId, newWeight - currentWeight);
 
-        for (Map.Entry<Long, Map<Long, Double>> entry : eventUserWeights.entrySet()) {
-            Long otherEventId = entry.getKey();
-
-            if (otherEventId.equals(eventId)) {
-                log.debug("Skipping same event: {}", eventId);
-                continue;
+        state.forEachEventOfUser(userId, (otherEventId, otherWeight) -> {
+            if (otherEventId == eventId) {
+                return;
             }
 
-            if (entry.getValue().containsKey(userId)) {
-                double otherWeight = entry.getValue().get(userId);
-                log.debug("Found interaction with event: {}, weight: {}", otherEventId, otherWeight);
-
-                long firstEvent = Math.min(eventId, otherEventId);
-                long secondEvent = Math.max(eventId, otherEventId);
-                log.debug("Processing pair: {} and {}", firstEvent, secondEvent);
-
-                double oldMin = Math.min(currentWeight, otherWeight);
-                double newMin = Math.min(newWeight, otherWeight);
-                double deltaMin = newMin - oldMin;
-                log.debug("Min weights - old: {}, new: {}, delta: {}", oldMin, newMin, deltaMin);
-
-                Map<Long, Double> secondLevelMap = pairMinWeights.computeIfAbsent(firstEvent, k -> new HashMap<>());
-                double currentSum = secondLevelMap.getOrDefault(secondEvent, 0.0);
-                double updatedSum = currentSum + deltaMin;
-                secondLevelMap.put(secondEvent, updatedSum);
-
-                log.debug("Updated min weights sum for pair ({}, {}): was {}, now {}",
-                        firstEvent, secondEvent, currentSum, updatedSum);
+            long firstEvent = Math.min(eventId, otherEventId);
+            long secondEvent = Math.max(eventId, otherEventId);
+            double deltaMin = Math.min(newWeight, otherWeight) - Math.min(currentWeight, otherWeight);
+            double updatedSum = state.addPairMinWeight(firstEvent, secondEvent, deltaMin);
 
-                double sumA = eventTotalWeights.get(firstEvent);
-                double sumB = eventTotalWeights.get(secondEvent);
-                log.debug("Total weights - sumA: {}, sumB: {}", sumA, sumB);
+            updatedPairs.accept(firstEvent, secondEvent, updatedSum);
+        });
+    }
 
-                double score = calculateCosineSimilarity(sumA, sumB, updatedSum);
-                log.info("Calculated similarity score for events {} and {}: {}",
-                        firstEvent, secondEvent, score);
+    private void scorePair(long firstEvent, long secondEvent, double pairMinWeight, List<SimilarityUpdate> results) {
+        double sumA = state.getTotalWeight(firstEvent);
+        double sumB = state.getTotalWeight(secondEvent);
+        double score = calculateCosineSimilarity(sumA, sumB, pairMinWeight);
+        calculatedScores.increment();
 
-                if (score > 0) {
-                    EventSimilarityAvro similarity = createSimilarityAvro(firstEvent, secondEvent, score);
-                    results.add(similarity);
-                    log.debug("Created similarity record: {}", similarity);
-                }
-            }
+        if (score > 0 && state.offerNeighbours(firstEvent, secondEvent, score,
+                pairKey -> results.add(SimilarityUpdate.removal(pairKey)))) {
+            EventSimilarityAvro similarity = createSimilarityAvro(firstEvent, secondEvent, score);
+            results.add(SimilarityUpdate.of(similarity));
         }
-
-        return results;
     }
 
     private double calculateCosineSimilarity(double sumA, double sumB, double sumMin) {
         if (sumA <= 0 || sumB <= 0 || sumMin <= 0) {
-            log.debug("Invalid input for similarity calculation - sumA: {}, sumB: {}, sumMin: {}",
-                    sumA, sumB, sumMin);
             return 0;
         }
 
@@ -113,7 +130,6 @@ public class SimilarityServiceImpl implements SimilarityService {
         double denominator = sqrtA * sqrtB;
 
         if (denominator == 0) {
-            log.debug("Denominator is zero - sumA: {}, sumB: {}", sumA, sumB);
             return 0;
         }
 
@@ -140,15 +156,18 @@ public class SimilarityServiceImpl implements SimilarityService {
     }
 
     @Override
-    public void collectEventSimilarity(EventSimilarityAvro eventSimilarityAvro) {
+    public void collectEventSimilarity(SimilarityUpdate update) {
         try {
             ProducerRecord<Long, SpecificRecordBase> record = new ProducerRecord<>(
                     kafkaConfig.getKafkaProperties().getEventsSimilarityTopic(),
-                    eventSimilarityAvro.getEventA(),
-                    eventSimilarityAvro);
+                    update.getPairKey(),
+                    update.getSimilarity());
             producer.send(record);
         } catch (Exception e) {
             log.error("Error sending to Kafka: {}", e.getMessage());
+            if (aggregatorProperties.isExactlyOnce()) {
+                throw e;
+            }
         }
     }
 
@@ -159,6 +178,28 @@ public class SimilarityServiceImpl implements SimilarityService {
         }
     }
 
+    @Override
+    public void initTransactions() {
+        producer.initTransactions();
+    }
+
+    @Override
+    public void beginTransaction() {
+        producer.beginTransaction();
+    }
+
+    @Override
+    public void commitTransaction(Map<TopicPartition, OffsetAndMetadata> offsets,
+                                  ConsumerGroupMetadata groupMetadata) {
+        producer.sendOffsetsToTransaction(offsets, groupMetadata);
+        producer.commitTransaction();
+    }
+
+    @Override
+    public void abortTransaction() {
+        producer.abortTransaction();
+    }
+
     @Override
     public void close() {
         try {
@@ -172,9 +213,22 @@ public class SimilarityServiceImpl implements SimilarityService {
         }
     }
 
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("aggregator.actions.processed", processedActions, LongAdder::sum)
+                .description("Количество обработанных действий пользователей")
+                .register(registry);
+        FunctionCounter.builder("aggregator.similarities.calculated", calculatedScores, LongAdder::sum)
+                .description("Количество пересчитанных коэффициентов сходства пар событий")
+                .register(registry);
+    }
+
     public void resetState() {
-        eventUserWeights.clear();
-        eventTotalWeights.clear();
-        pairMinWeights.clear();
+        state.clear();
+    }
+
+    @FunctionalInterface
+    private interface PairUpdateConsumer {
+        void accept(long firstEvent, long secondEvent, double pairMinWeight);
     }
 }
\ No newline at end of file
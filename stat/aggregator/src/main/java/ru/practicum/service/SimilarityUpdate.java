@@ -0,0 +1,30 @@
+package ru.practicum.service;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import ru.practicum.ewm.stats.PairKey;
+import ru.practicum.ewm.stats.avro.EventSimilarityAvro;
+
+/**
+ * A new similarity of a pair of events, or its removal when the pair left the top neighbours
+ * of both events. A removal is sent as a tombstone: the pair key with no value.
+ */
+@Getter
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+public class SimilarityUpdate {
+    private final long pairKey;
+    private final EventSimilarityAvro similarity;
+
+    public static SimilarityUpdate of(EventSimilarityAvro similarity) {
+        return new SimilarityUpdate(PairKey.pack(similarity.getEventA(), similarity.getEventB()), similarity);
+    }
+
+    public static SimilarityUpdate removal(long pairKey) {
+        return new SimilarityUpdate(pairKey, null);
+    }
+
+    public boolean isRemoval() {
+        return similarity == null;
+    }
+}
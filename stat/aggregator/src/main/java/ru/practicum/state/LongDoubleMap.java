@@ -0,0 +1,262 @@
+package ru.practicum.state;
+
+import java.util.Arrays;
+import java.util.function.DoublePredicate;
+import java.util.function.LongConsumer;
+
+/**
+ * Open-addressing hash map from {@code long} to {@code double} with linear probing.
+ * Keys and values live in two flat arrays, so an entry costs 16 bytes of payload
+ * instead of a boxed key, a boxed value and a map node.
+ */
+public class LongDoubleMap {
+    private static final long FREE_KEY = 0L;
+    private static final float LOAD_FACTOR = 0.75f;
+    private static final int MIN_CAPACITY = 4;
+    private static final long OBJECT_HEADER_BYTES = 40L;
+    private static final long ARRAY_HEADER_BYTES = 16L;
+
+    private long[] keys;
+    private double[] values;
+    private int mask;
+    private int size;
+    private int threshold;
+    private boolean hasFreeKey;
+    private double freeValue;
+
+    public LongDoubleMap() {
+        this(MIN_CAPACITY);
+    }
+
+    public LongDoubleMap(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    public double get(long key, double defaultValue) {
+        if (key == FREE_KEY) {
+            return hasFreeKey ? freeValue : defaultValue;
+        }
+        int slot = indexOf(key);
+        return slot < 0 ? defaultValue : values[slot];
+    }
+
+    public boolean containsKey(long key) {
+        return key == FREE_KEY ? hasFreeKey : indexOf(key) >= 0;
+    }
+
+    public void put(long key, double value) {
+        if (key == FREE_KEY) {
+            if (!hasFreeKey) {
+                hasFreeKey = true;
+                size++;
+            }
+            freeValue = value;
+            return;
+        }
+        int slot = slotFor(key);
+        if (keys[slot] == FREE_KEY) {
+            keys[slot] = key;
+            values[slot] = value;
+            if (++size > threshold) {
+                rehash(keys.length << 1);
+            }
+        } else {
+            values[slot] = value;
+        }
+    }
+
+    /**
+     * Adds {@code delta} to the value stored under {@code key}, treating a missing key as zero.
+     *
+     * @return the value after the addition
+     */
+    public double addTo(long key, double delta) {
+        if (key == FREE_KEY) {
+            double updated = (hasFreeKey ? freeValue : 0.0) + delta;
+            put(key, updated);
+            return updated;
+        }
+        int slot = slotFor(key);
+        if (keys[slot] != FREE_KEY) {
+            values[slot] += delta;
+            return values[slot];
+        }
+        keys[slot] = key;
+        values[slot] = delta;
+        if (++size > threshold) {
+            rehash(keys.length << 1);
+        }
+        return delta;
+    }
+
+    public boolean remove(long key) {
+        if (key == FREE_KEY) {
+            if (!hasFreeKey) {
+                return false;
+            }
+            hasFreeKey = false;
+            freeValue = 0.0;
+            size--;
+            return true;
+        }
+        int slot = indexOf(key);
+        if (slot < 0) {
+            return false;
+        }
+        shiftKeys(slot);
+        size--;
+        return true;
+    }
+
+    public void scaleValues(double factor) {
+        if (hasFreeKey) {
+            freeValue *= factor;
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != FREE_KEY) {
+                values[i] *= factor;
+            }
+        }
+    }
+
+    public int removeIf(DoublePredicate predicate) {
+        return removeIf(predicate, key -> {
+        });
+    }
+
+    /**
+     * @param removedKeys receives the key of every removed entry
+     */
+    public int removeIf(DoublePredicate predicate, LongConsumer removedKeys) {
+        int removed = 0;
+        if (hasFreeKey && predicate.test(freeValue)) {
+            remove(FREE_KEY);
+            removedKeys.accept(FREE_KEY);
+            removed++;
+        }
+        int i = 0;
+        while (i < keys.length) {
+            if (keys[i] != FREE_KEY && predicate.test(values[i])) {
+                removedKeys.accept(keys[i]);
+                shiftKeys(i);
+                size--;
+                removed++;
+            } else {
+                i++;
+            }
+        }
+        return removed;
+    }
+
+    public void forEach(EntryConsumer action) {
+        if (hasFreeKey) {
+            action.accept(FREE_KEY, freeValue);
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != FREE_KEY) {
+                action.accept(keys[i], values[i]);
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, FREE_KEY);
+        Arrays.fill(values, 0.0);
+        hasFreeKey = false;
+        freeValue = 0.0;
+        size = 0;
+    }
+
+    public long estimateHeapBytes() {
+        return OBJECT_HEADER_BYTES + 2 * (ARRAY_HEADER_BYTES + (long) Long.BYTES * keys.length);
+    }
+
+    private int indexOf(long key) {
+        int slot = hash(key) & mask;
+        long current;
+        while ((current = keys[slot]) != FREE_KEY) {
+            if (current == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int slotFor(long key) {
+        int slot = hash(key) & mask;
+        long current;
+        while ((current = keys[slot]) != FREE_KEY && current != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void shiftKeys(int pos) {
+        while (true) {
+            int last = pos;
+            pos = (pos + 1) & mask;
+            long current;
+            while (true) {
+                if ((current = keys[pos]) == FREE_KEY) {
+                    keys[last] = FREE_KEY;
+                    values[last] = 0.0;
+                    return;
+                }
+                int slot = hash(current) & mask;
+                if (last <= pos ? last >= slot || slot > pos : last >= slot && slot > pos) {
+                    break;
+                }
+                pos = (pos + 1) & mask;
+            }
+            keys[last] = current;
+            values[last] = values[pos];
+        }
+    }
+
+    private void rehash(int newCapacity) {
+        long[] oldKeys = keys;
+        double[] oldValues = values;
+        allocate(newCapacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE_KEY) {
+                int slot = slotFor(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new double[capacity];
+        mask = capacity - 1;
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * LOAD_FACTOR < expectedSize) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    @FunctionalInterface
+    public interface EntryConsumer {
+        void accept(long key, double value);
+    }
+}
@@ -0,0 +1,253 @@
+package ru.practicum.state;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import ru.practicum.config.AggregatorProperties;
+import ru.practicum.ewm.stats.PairKey;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+/**
+ * User weights are split into shards by user id, so each shard is only ever touched by one worker;
+ * totals and pair min-sums are shared between shards.
+ * <p>
+ * With decay enabled every weight is stored scaled by {@code exp(rate * (actionTime - landmark))}
+ * (forward decay). All stored values then share the same decay factor at any moment, which cancels
+ * out in the cosine similarity, so newer actions outweigh older ones without rewriting the state.
+ * <p>
+ * With {@code topK} set only the best neighbours of each event are tracked for emission, see {@link TopNeighbours}.
+ */
+@Slf4j
+@Component
+public class SimilarityState implements MeterBinder {
+    private static final int STRIPES_PER_SHARD = 16;
+    private static final double RENORMALIZE_EXPONENT = 30.0;
+
+    private final UserWeights[] shards;
+    private final WeightSums sums;
+    private final int topK;
+    private final TopNeighbours topNeighbours;
+    private final boolean decayEnabled;
+    private final double decayRate;
+    private final double evictionThreshold;
+    private final AtomicLong latestActionTime = new AtomicLong();
+    private volatile long landmark = System.currentTimeMillis();
+
+    public SimilarityState(AggregatorProperties properties) {
+        AggregatorProperties.Decay decay = properties.getDecay();
+        decayEnabled = decay.isEnabled();
+        decayRate = Math.log(2) / decay.getHalfLife().toMillis();
+        evictionThreshold = decay.getEvictionThreshold();
+
+        int shardCount = Math.max(1, properties.getWorkers());
+        shards = new UserWeights[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new UserWeights();
+        }
+        sums = new WeightSums(shardCount * STRIPES_PER_SHARD);
+        topK = Math.max(0, properties.getTopK());
+        topNeighbours = new TopNeighbours(topK);
+    }
+
+    public int shardCount() {
+        return shards.length;
+    }
+
+    public int shardOf(long userId) {
+        return (int) Math.floorMod(userId, (long) shards.length);
+    }
+
+    public boolean isDecayEnabled() {
+        return decayEnabled;
+    }
+
+    public boolean isTopKEnabled() {
+        return topK > 0;
+    }
+
+    public long getLandmark() {
+        return landmark;
+    }
+
+    public void setLandmark(long landmark) {
+        this.landmark = landmark;
+    }
+
+    public double toStoredWeight(double weight, long actionTime) {
+        if (!decayEnabled) {
+            return weight;
+        }
+        latestActionTime.accumulateAndGet(actionTime, Math::max);
+        return weight * Math.exp(decayRate * (actionTime - landmark));
+    }
+
+    /**
+     * Moves the landmark forward when stored values grow too large and drops weights whose decayed
+     * value fell below the eviction threshold. Evicted pairs leave the top neighbours too, freeing
+     * their slots. Must not run concurrently with updates.
+     *
+     * @param removedPairs receives keys of evicted pairs that were emitted before and must be removed
+     *                     downstream
+     */
+    public void applyDecay(LongConsumer removedPairs) {
+        if (!decayEnabled) {
+            return;
+        }
+        long now = Math.max(latestActionTime.get(), landmark);
+        double exponent = decayRate * (now - landmark);
+        if (exponent > RENORMALIZE_EXPONENT) {
+            double factor = Math.exp(-exponent);
+            for (UserWeights shard : shards) {
+                shard.scale(factor);
+            }
+            sums.scale(factor);
+            landmark = now;
+            exponent = 0.0;
+        }
+        double limit = evictionThreshold * Math.exp(exponent);
+        long before = entryCount();
+        for (UserWeights shard : shards) {
+            shard.evictBelow(limit);
+        }
+        sums.evictBelow(limit, pairKey -> {
+            if (!isTopKEnabled() || topNeighbours.remove(PairKey.first(pairKey), PairKey.second(pairKey))) {
+                removedPairs.accept(pairKey);
+            }
+        });
+        long after = entryCount();
+        log.debug("Затухание применено: удалено {} записей, осталось {}", before - after, after);
+    }
+
+    public double getUserWeight(long eventId, long userId) {
+        return shards[shardOf(userId)].get(eventId, userId);
+    }
+
+    public void putUserWeight(long eventId, long userId, double weight) {
+        shards[shardOf(userId)].put(eventId, userId, weight);
+    }
+
+    public void forEachEventOfUser(long userId, LongDoubleMap.EntryConsumer action) {
+        shards[shardOf(userId)].forEachEventOfUser(userId, action);
+    }
+
+    public double getTotalWeight(long eventId) {
+        return sums.getTotalWeight(eventId);
+    }
+
+    public double addTotalWeight(long eventId, double delta) {
+        return sums.addTotalWeight(eventId, delta);
+    }
+
+    public double getPairMinWeight(long firstEventId, long secondEventId) {
+        return sums.getPairMinWeight(PairKey.pack(firstEventId, secondEventId));
+    }
+
+    public double addPairMinWeight(long firstEventId, long secondEventId, double delta) {
+        return sums.addPairMinWeight(PairKey.pack(firstEventId, secondEventId), delta);
+    }
+
+    /**
+     * @param removedPairs receives keys of pairs that are no longer among the top neighbours of either event
+     * @return whether the pair should be emitted
+     */
+    public boolean offerNeighbours(long firstEventId, long secondEventId, double score, LongConsumer removedPairs) {
+        return !isTopKEnabled() || topNeighbours.offer(firstEventId, secondEventId, score, removedPairs);
+    }
+
+    public void putNeighbour(long eventId, long neighbourId, double score, LongConsumer droppedPairs) {
+        if (isTopKEnabled()) {
+            topNeighbours.put(eventId, neighbourId, score, droppedPairs);
+        }
+    }
+
+    public boolean hasNeighbourPair(long pairKey) {
+        return !isTopKEnabled() || topNeighbours.contains(pairKey);
+    }
+
+    public void forEachNeighbour(UserWeights.WeightConsumer action) {
+        topNeighbours.forEach(action);
+    }
+
+    public long neighbourCount() {
+        return topNeighbours.size();
+    }
+
+    public void forEachUserWeight(UserWeights.WeightConsumer action) {
+        for (UserWeights shard : shards) {
+            shard.forEach(action);
+        }
+    }
+
+    public void forEachTotalWeight(LongDoubleMap.EntryConsumer action) {
+        sums.forEachTotalWeight(action);
+    }
+
+    public void forEachPairMinWeight(LongDoubleMap.EntryConsumer action) {
+        sums.forEachPairMinWeight(action);
+    }
+
+    public long userWeightCount() {
+        long count = 0;
+        for (UserWeights shard : shards) {
+            count += shard.size();
+        }
+        return count;
+    }
+
+    public long totalWeightCount() {
+        return sums.totalWeightCount();
+    }
+
+    public long pairMinWeightCount() {
+        return sums.pairMinWeightCount();
+    }
+
+    public long entryCount() {
+        return userWeightCount() + sums.size();
+    }
+
+    public long estimateHeapBytes() {
+        long bytes = sums.estimateHeapBytes() + topNeighbours.estimateHeapBytes();
+        for (UserWeights shard : shards) {
+            bytes += shard.estimateHeapBytes();
+        }
+        return bytes;
+    }
+
+    public double estimateBytesPerEntry() {
+        long entries = entryCount();
+        return entries == 0 ? 0.0 : (double) estimateHeapBytes() / entries;
+    }
+
+    public void clear() {
+        landmark = System.currentTimeMillis();
+        latestActionTime.set(0);
+        for (UserWeights shard : shards) {
+            shard.clear();
+        }
+        sums.clear();
+        topNeighbours.clear();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("aggregator.state.entries", this, SimilarityState::entryCount)
+                .description("Количество записей весов и сумм в состоянии агрегатора")
+                .register(registry);
+        Gauge.builder("aggregator.state.neighbours", this, SimilarityState::neighbourCount)
+                .description("Количество пар в списках ближайших соседей событий")
+                .register(registry);
+        Gauge.builder("aggregator.state.heap", this, SimilarityState::estimateHeapBytes)
+                .description("Оценка объёма кучи, занятого состоянием агрегатора")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("aggregator.state.heap.per.entry", this, SimilarityState::estimateBytesPerEntry)
+                .description("Оценка объёма кучи на одну запись состояния")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+}
@@ -0,0 +1,203 @@
+package ru.practicum.state;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.stereotype.Component;
+import ru.practicum.config.AggregatorProperties;
+import ru.practicum.ewm.stats.PairKey;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.LongConsumer;
+
+/**
+ * Binary snapshot of {@link SimilarityState} together with the consumer offsets it reflects.
+ * The file is written next to the current one and atomically moved over it, so a crash while
+ * writing never leaves a half-written snapshot behind.
+ */
+@Slf4j
+@Component
+public class SnapshotStore {
+    private static final int MAGIC = 0x45574D53;
+    private static final int VERSION = 3;
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final String FILE_NAME = "aggregator.snapshot";
+
+    private final Path file;
+    private final Path tempFile;
+    private final boolean exactlyOnce;
+
+    public SnapshotStore(AggregatorProperties properties) {
+        Path directory = Path.of(properties.getSnapshot().getDirectory());
+        this.file = directory.resolve(FILE_NAME);
+        this.tempFile = directory.resolve(FILE_NAME + ".tmp");
+        this.exactlyOnce = properties.isExactlyOnce();
+    }
+
+    public void save(SimilarityState state, Map<TopicPartition, OffsetAndMetadata> offsets) {
+        long started = System.nanoTime();
+        try {
+            Files.createDirectories(file.getParent());
+            try (FileOutputStream fileStream = new FileOutputStream(tempFile.toFile());
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileStream, BUFFER_SIZE))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                writeOffsets(out, offsets);
+                out.writeLong(state.getLandmark());
+                writeState(out, state);
+                writeNeighbours(out, state);
+                out.flush();
+                fileStream.getFD().sync();
+            }
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось сохранить снимок состояния агрегатора в " + file, e);
+        }
+        log.info("Снимок состояния сохранён: {} записей, {} партиций, {} мс",
+                state.entryCount(), offsets.size(), (System.nanoTime() - started) / 1_000_000);
+    }
+
+    /**
+     * @param removedPairs receives keys of the pairs that no longer fit into the top-K lists, when
+     *                     {@code topK} is lower than when the snapshot was written
+     * @throws IllegalStateException if the file is not a supported snapshot and exactly-once mode is on:
+     * starting from the committed offsets with an empty state would break its guarantee
+     */
+    public Optional<Map<TopicPartition, OffsetAndMetadata>> load(SimilarityState state, LongConsumer removedPairs) {
+        if (!Files.exists(file)) {
+            log.info("Снимок состояния {} не найден, агрегатор стартует с пустым состоянием", file);
+            return Optional.empty();
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file),
+                BUFFER_SIZE))) {
+            int magic = in.readInt();
+            int version = in.readInt();
+            if (magic != MAGIC || version < 1 || version > VERSION) {
+                if (exactlyOnce) {
+                    throw new IllegalStateException("Файл " + file
+                            + " не является снимком состояния поддерживаемой версии, а режим exactly-once включён");
+                }
+                log.warn("Файл {} не является снимком состояния поддерживаемой версии", file);
+                return Optional.empty();
+            }
+            Map<TopicPartition, OffsetAndMetadata> offsets = readOffsets(in);
+            long landmark = version >= 2 ? in.readLong() : state.getLandmark();
+            readState(in, state);
+            if (version >= 3) {
+                readNeighbours(in, state, removedPairs);
+            }
+            state.setLandmark(landmark);
+            log.info("Загружен снимок состояния: {} записей, оффсеты {}", state.entryCount(), offsets);
+            return Optional.of(offsets);
+        } catch (IOException e) {
+            state.clear();
+            throw new UncheckedIOException("Не удалось прочитать снимок состояния агрегатора из " + file, e);
+        }
+    }
+
+    private void writeOffsets(DataOutputStream out, Map<TopicPartition, OffsetAndMetadata> offsets)
+            throws IOException {
+        out.writeInt(offsets.size());
+        for (Map.Entry<TopicPartition, OffsetAndMetadata> entry : offsets.entrySet()) {
+            out.writeUTF(entry.getKey().topic());
+            out.writeInt(entry.getKey().partition());
+            out.writeLong(entry.getValue().offset());
+        }
+    }
+
+    private Map<TopicPartition, OffsetAndMetadata> readOffsets(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>(count);
+        for (int i = 0; i < count; i++) {
+            TopicPartition partition = new TopicPartition(in.readUTF(), in.readInt());
+            offsets.put(partition, new OffsetAndMetadata(in.readLong()));
+        }
+        return offsets;
+    }
+
+    private void writeState(DataOutputStream out, SimilarityState state) throws IOException {
+        out.writeLong(state.userWeightCount());
+        state.forEachUserWeight((eventId, userId, weight) -> {
+            try {
+                out.writeLong(eventId);
+                out.writeLong(userId);
+                out.writeDouble(weight);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        out.writeLong(state.totalWeightCount());
+        state.forEachTotalWeight((eventId, weight) -> writeEntry(out, eventId, weight));
+        out.writeLong(state.pairMinWeightCount());
+        state.forEachPairMinWeight((pairKey, weight) -> writeEntry(out, pairKey, weight));
+    }
+
+    private void readState(DataInputStream in, SimilarityState state) throws IOException {
+        state.clear();
+        long userWeights = in.readLong();
+        for (long i = 0; i < userWeights; i++) {
+            state.putUserWeight(in.readLong(), in.readLong(), in.readDouble());
+        }
+        long totalWeights = in.readLong();
+        for (long i = 0; i < totalWeights; i++) {
+            state.addTotalWeight(in.readLong(), in.readDouble());
+        }
+        long pairMinWeights = in.readLong();
+        for (long i = 0; i < pairMinWeights; i++) {
+            long pairKey = in.readLong();
+            state.addPairMinWeight(PairKey.first(pairKey), PairKey.second(pairKey), in.readDouble());
+        }
+    }
+
+    private void writeNeighbours(DataOutputStream out, SimilarityState state) throws IOException {
+        out.writeLong(state.neighbourCount());
+        state.forEachNeighbour((eventId, neighbourId, score) -> {
+            try {
+                out.writeLong(eventId);
+                out.writeLong(neighbourId);
+                out.writeDouble(score);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Each list is restored on its own, so a pair dropped from one list is removed only if the list of
+     * its other event has not kept it either; that is known once every list is read.
+     */
+    private void readNeighbours(DataInputStream in, SimilarityState state, LongConsumer removedPairs)
+            throws IOException {
+        long neighbours = in.readLong();
+        LongDoubleMap droppedPairs = new LongDoubleMap();
+        for (long i = 0; i < neighbours; i++) {
+            state.putNeighbour(in.readLong(), in.readLong(), in.readDouble(), pairKey -> droppedPairs.put(pairKey, 0));
+        }
+        droppedPairs.forEach((pairKey, ignored) -> {
+            if (!state.hasNeighbourPair(pairKey)) {
+                removedPairs.accept(pairKey);
+            }
+        });
+    }
+
+    private static void writeEntry(DataOutputStream out, long key, double value) {
+        try {
+            out.writeLong(key);
+            out.writeDouble(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package ru.practicum.state;
+
+import ru.practicum.ewm.stats.PairKey;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.LongConsumer;
+
+/**
+ * The K most similar neighbours of every event, kept in arrays sorted by score in descending order.
+ * A pair is retained while it is in the list of at least one of its events; once it drops out of both
+ * lists it is reported as removed, so everything downstream stays bounded by events × K.
+ */
+public class TopNeighbours {
+    private static final long NO_NEIGHBOUR = -1L;
+    private static final int INITIAL_CAPACITY = 4;
+    private static final long INDEX_ENTRY_OVERHEAD_BYTES = 56L;
+    private static final long LIST_OVERHEAD_BYTES = 24L + 2 * 16L;
+
+    private final int capacity;
+    private final Map<Long, Neighbours> lists = new HashMap<>();
+    private long size;
+
+    public TopNeighbours(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Offers the new score of a pair to the lists of both its events.
+     *
+     * @param removedPairs receives keys of pairs pushed out of the lists of both their events
+     * @return whether the pair is in the list of either event after the update
+     */
+    public synchronized boolean offer(long firstEventId, long secondEventId, double score,
+                                      LongConsumer removedPairs) {
+        long evictedByFirst = offerTo(firstEventId, secondEventId, score);
+        long evictedBySecond = offerTo(secondEventId, firstEventId, score);
+        reportIfDropped(firstEventId, evictedByFirst, removedPairs);
+        reportIfDropped(secondEventId, evictedBySecond, removedPairs);
+        return contains(firstEventId, secondEventId) || contains(secondEventId, firstEventId);
+    }
+
+    /**
+     * Removes the pair from the lists of both its events.
+     *
+     * @return whether the pair was in the list of either event
+     */
+    public synchronized boolean remove(long firstEventId, long secondEventId) {
+        boolean removedFromFirst = removeFrom(firstEventId, secondEventId);
+        boolean removedFromSecond = removeFrom(secondEventId, firstEventId);
+        return removedFromFirst || removedFromSecond;
+    }
+
+    /**
+     * Puts a pair into the list of one event only, as when restoring a snapshot.
+     *
+     * @param droppedPairs receives keys of pairs this list rejected or evicted; they may still be in the
+     *                     list of their other event
+     */
+    public synchronized void put(long eventId, long neighbourId, double score, LongConsumer droppedPairs) {
+        long evicted = offerTo(eventId, neighbourId, score);
+        if (evicted != NO_NEIGHBOUR) {
+            droppedPairs.accept(pairKey(eventId, evicted));
+        }
+        if (!contains(eventId, neighbourId)) {
+            droppedPairs.accept(pairKey(eventId, neighbourId));
+        }
+    }
+
+    /**
+     * @return whether the pair is in the list of either of its events
+     */
+    public synchronized boolean contains(long pairKey) {
+        long firstEventId = PairKey.first(pairKey);
+        long secondEventId = PairKey.second(pairKey);
+        return contains(firstEventId, secondEventId) || contains(secondEventId, firstEventId);
+    }
+
+    public synchronized void forEach(UserWeights.WeightConsumer action) {
+        for (Map.Entry<Long, Neighbours> entry : lists.entrySet()) {
+            Neighbours neighbours = entry.getValue();
+            for (int i = 0; i < neighbours.size; i++) {
+                action.accept(entry.getKey(), neighbours.ids[i], neighbours.scores[i]);
+            }
+        }
+    }
+
+    public synchronized long size() {
+        return size;
+    }
+
+    public synchronized long estimateHeapBytes() {
+        long bytes = 0;
+        for (Neighbours neighbours : lists.values()) {
+            bytes += INDEX_ENTRY_OVERHEAD_BYTES + LIST_OVERHEAD_BYTES
+                    + (long) (Long.BYTES + Double.BYTES) * neighbours.ids.length;
+        }
+        return bytes;
+    }
+
+    public synchronized void clear() {
+        lists.clear();
+        size = 0;
+    }
+
+    private long offerTo(long eventId, long neighbourId, double score) {
+        Neighbours neighbours = lists.computeIfAbsent(eventId, id -> new Neighbours(Math.min(capacity,
+                INITIAL_CAPACITY)));
+        int sizeBefore = neighbours.size;
+        long evicted = neighbours.offer(neighbourId, score, capacity);
+        size += neighbours.size - sizeBefore;
+        return evicted;
+    }
+
+    private boolean removeFrom(long eventId, long neighbourId) {
+        Neighbours neighbours = lists.get(eventId);
+        if (neighbours == null) {
+            return false;
+        }
+        int index = neighbours.indexOf(neighbourId);
+        if (index < 0) {
+            return false;
+        }
+        neighbours.removeAt(index);
+        size--;
+        if (neighbours.size == 0) {
+            lists.remove(eventId);
+        }
+        return true;
+    }
+
+    private boolean contains(long eventId, long neighbourId) {
+        Neighbours neighbours = lists.get(eventId);
+        return neighbours != null && neighbours.indexOf(neighbourId) >= 0;
+    }
+
+    private void reportIfDropped(long eventId, long evicted, LongConsumer removedPairs) {
+        if (evicted != NO_NEIGHBOUR && !contains(evicted, eventId)) {
+            removedPairs.accept(pairKey(eventId, evicted));
+        }
+    }
+
+    private static long pairKey(long eventId, long otherEventId) {
+        return PairKey.pack(Math.min(eventId, otherEventId), Math.max(eventId, otherEventId));
+    }
+
+    private static final class Neighbours {
+        private long[] ids;
+        private double[] scores;
+        private int size;
+
+        private Neighbours(int initialCapacity) {
+            ids = new long[initialCapacity];
+            scores = new double[initialCapacity];
+        }
+
+        private int indexOf(long id) {
+            for (int i = 0; i < size; i++) {
+                if (ids[i] == id) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private long offer(long id, double score, int capacity) {
+            int index = indexOf(id);
+            if (index >= 0) {
+                removeAt(index);
+                insert(id, score, capacity);
+                return NO_NEIGHBOUR;
+            }
+            if (size < capacity) {
+                insert(id, score, capacity);
+                return NO_NEIGHBOUR;
+            }
+            if (score <= scores[size - 1]) {
+                return NO_NEIGHBOUR;
+            }
+            long evicted = ids[size - 1];
+            size--;
+            insert(id, score, capacity);
+            return evicted;
+        }
+
+        private void removeAt(int index) {
+            System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+            System.arraycopy(scores, index + 1, scores, index, size - index - 1);
+            size--;
+        }
+
+        private void insert(long id, double score, int capacity) {
+            if (size == ids.length) {
+                int grown = Math.min(capacity, Math.max(1, ids.length << 1));
+                ids = Arrays.copyOf(ids, grown);
+                scores = Arrays.copyOf(scores, grown);
+            }
+            int position = size;
+            while (position > 0 && scores[position - 1] < score) {
+                position--;
+            }
+            System.arraycopy(ids, position, ids, position + 1, size - position);
+            System.arraycopy(scores, position, scores, position + 1, size - position);
+            ids[position] = id;
+            scores[position] = score;
+            size++;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package ru.practicum.state;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class UserWeights {
+    private static final long INDEX_ENTRY_OVERHEAD_BYTES = 56L;
+
+    private final Map<Long, LongDoubleMap> eventUserWeights = new HashMap<>();
+    private final Map<Long, LongDoubleMap> userEventWeights = new HashMap<>();
+    private long size;
+    private long heapBytes;
+
+    public double get(long eventId, long userId) {
+        LongDoubleMap userWeights = eventUserWeights.get(eventId);
+        return userWeights == null ? 0.0 : userWeights.get(userId, 0.0);
+    }
+
+    public void put(long eventId, long userId, double weight) {
+        size += putNested(eventUserWeights, eventId, userId, weight);
+        putNested(userEventWeights, userId, eventId, weight);
+    }
+
+    public void forEachEventOfUser(long userId, LongDoubleMap.EntryConsumer action) {
+        LongDoubleMap eventWeights = userEventWeights.get(userId);
+        if (eventWeights != null) {
+            eventWeights.forEach(action);
+        }
+    }
+
+    public void forEach(WeightConsumer action) {
+        for (Map.Entry<Long, LongDoubleMap> entry : eventUserWeights.entrySet()) {
+            long eventId = entry.getKey();
+            entry.getValue().forEach((userId, weight) -> action.accept(eventId, userId, weight));
+        }
+    }
+
+    public void scale(double factor) {
+        eventUserWeights.values().forEach(weights -> weights.scaleValues(factor));
+        userEventWeights.values().forEach(weights -> weights.scaleValues(factor));
+    }
+
+    public void evictBelow(double limit) {
+        evictBelow(eventUserWeights, limit);
+        evictBelow(userEventWeights, limit);
+        size = 0;
+        heapBytes = 0;
+        for (LongDoubleMap weights : eventUserWeights.values()) {
+            size += weights.size();
+            heapBytes += INDEX_ENTRY_OVERHEAD_BYTES + weights.estimateHeapBytes();
+        }
+        for (LongDoubleMap weights : userEventWeights.values()) {
+            heapBytes += INDEX_ENTRY_OVERHEAD_BYTES + weights.estimateHeapBytes();
+        }
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public long estimateHeapBytes() {
+        return heapBytes;
+    }
+
+    public void clear() {
+        eventUserWeights.clear();
+        userEventWeights.clear();
+        size = 0;
+        heapBytes = 0;
+    }
+
+    private static void evictBelow(Map<Long, LongDoubleMap> index, double limit) {
+        index.values().removeIf(weights -> {
+            weights.removeIf(weight -> weight < limit);
+            return weights.isEmpty();
+        });
+    }
+
+    private int putNested(Map<Long, LongDoubleMap> index, long outerKey, long innerKey, double weight) {
+        LongDoubleMap weights = index.get(outerKey);
+        if (weights == null) {
+            weights = new LongDoubleMap();
+            index.put(outerKey, weights);
+            heapBytes += INDEX_ENTRY_OVERHEAD_BYTES + weights.estimateHeapBytes();
+        }
+        int sizeBefore = weights.size();
+        long bytesBefore = weights.estimateHeapBytes();
+        weights.put(innerKey, weight);
+        heapBytes += weights.estimateHeapBytes() - bytesBefore;
+        return weights.size() - sizeBefore;
+    }
+
+    @FunctionalInterface
+    public interface WeightConsumer {
+        void accept(long eventId, long userId, double weight);
+    }
+}
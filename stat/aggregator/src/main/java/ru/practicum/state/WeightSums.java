@@ -0,0 +1,133 @@
+package ru.practicum.state;
+
+import java.util.function.LongConsumer;
+
+/**
+ * Event total weights and pair min-sums shared by all shards. Both are plain sums of deltas,
+ * so shards may add to them concurrently in any order; each key is guarded by its stripe lock.
+ */
+public class WeightSums {
+    private final Stripe[] stripes;
+    private final int mask;
+
+    public WeightSums(int stripeCount) {
+        int capacity = Integer.highestOneBit(Math.max(1, stripeCount - 1)) << 1;
+        stripes = new Stripe[capacity];
+        for (int i = 0; i < capacity; i++) {
+            stripes[i] = new Stripe();
+        }
+        mask = capacity - 1;
+    }
+
+    public double getTotalWeight(long eventId) {
+        Stripe stripe = stripeFor(eventId);
+        synchronized (stripe) {
+            return stripe.totalWeights.get(eventId, 0.0);
+        }
+    }
+
+    public double addTotalWeight(long eventId, double delta) {
+        Stripe stripe = stripeFor(eventId);
+        synchronized (stripe) {
+            return stripe.totalWeights.addTo(eventId, delta);
+        }
+    }
+
+    public double getPairMinWeight(long pairKey) {
+        Stripe stripe = stripeFor(pairKey);
+        synchronized (stripe) {
+            return stripe.pairMinWeights.get(pairKey, 0.0);
+        }
+    }
+
+    public double addPairMinWeight(long pairKey, double delta) {
+        Stripe stripe = stripeFor(pairKey);
+        synchronized (stripe) {
+            return stripe.pairMinWeights.addTo(pairKey, delta);
+        }
+    }
+
+    public void forEachTotalWeight(LongDoubleMap.EntryConsumer action) {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.totalWeights.forEach(action);
+            }
+        }
+    }
+
+    public void forEachPairMinWeight(LongDoubleMap.EntryConsumer action) {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.pairMinWeights.forEach(action);
+            }
+        }
+    }
+
+    public void scale(double factor) {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.totalWeights.scaleValues(factor);
+                stripe.pairMinWeights.scaleValues(factor);
+            }
+        }
+    }
+
+    /**
+     * @param evictedPairs receives the key of every evicted pair min-sum
+     */
+    public void evictBelow(double limit, LongConsumer evictedPairs) {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.totalWeights.removeIf(weight -> weight < limit);
+                stripe.pairMinWeights.removeIf(weight -> weight < limit, evictedPairs);
+            }
+        }
+    }
+
+    public long totalWeightCount() {
+        long count = 0;
+        for (Stripe stripe : stripes) {
+            count += stripe.totalWeights.size();
+        }
+        return count;
+    }
+
+    public long pairMinWeightCount() {
+        long count = 0;
+        for (Stripe stripe : stripes) {
+            count += stripe.pairMinWeights.size();
+        }
+        return count;
+    }
+
+    public long size() {
+        return totalWeightCount() + pairMinWeightCount();
+    }
+
+    public long estimateHeapBytes() {
+        long bytes = 0;
+        for (Stripe stripe : stripes) {
+            bytes += stripe.totalWeights.estimateHeapBytes() + stripe.pairMinWeights.estimateHeapBytes();
+        }
+        return bytes;
+    }
+
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.totalWeights.clear();
+                stripe.pairMinWeights.clear();
+            }
+        }
+    }
+
+    private Stripe stripeFor(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return stripes[(int) (h >>> 32) & mask];
+    }
+
+    private static final class Stripe {
+        private final LongDoubleMap totalWeights = new LongDoubleMap();
+        private final LongDoubleMap pairMinWeights = new LongDoubleMap();
+    }
+}
@@ -0,0 +1,103 @@
+package ru.practicum.cache;
+
+/**
+ * Immutable neighbours of one event, sorted by score in descending order. Updates return a copy,
+ * so readers never see a list that is being changed.
+ */
+public final class EventNeighbours {
+    public static final EventNeighbours EMPTY = new EventNeighbours(new long[0], new double[0]);
+
+    private final long[] eventIds;
+    private final double[] scores;
+
+    private EventNeighbours(long[] eventIds, double[] scores) {
+        this.eventIds = eventIds;
+        this.scores = scores;
+    }
+
+    public int size() {
+        return eventIds.length;
+    }
+
+    public long getEventId(int index) {
+        return eventIds[index];
+    }
+
+    public double getScore(int index) {
+        return scores[index];
+    }
+
+    public int indexOf(long eventId) {
+        for (int i = 0; i < eventIds.length; i++) {
+            if (eventIds[i] == eventId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public EventNeighbours with(long eventId, double score) {
+        EventNeighbours base = without(eventId);
+        int position = 0;
+        while (position < base.size() && base.scores[position] >= score) {
+            position++;
+        }
+        long[] newEventIds = new long[base.size() + 1];
+        double[] newScores = new double[base.size() + 1];
+        System.arraycopy(base.eventIds, 0, newEventIds, 0, position);
+        System.arraycopy(base.scores, 0, newScores, 0, position);
+        newEventIds[position] = eventId;
+        newScores[position] = score;
+        System.arraycopy(base.eventIds, position, newEventIds, position + 1, base.size() - position);
+        System.arraycopy(base.scores, position, newScores, position + 1, base.size() - position);
+        return new EventNeighbours(newEventIds, newScores);
+    }
+
+    public EventNeighbours without(long eventId) {
+        int index = indexOf(eventId);
+        if (index < 0) {
+            return this;
+        }
+        long[] newEventIds = new long[eventIds.length - 1];
+        double[] newScores = new double[scores.length - 1];
+        System.arraycopy(eventIds, 0, newEventIds, 0, index);
+        System.arraycopy(scores, 0, newScores, 0, index);
+        System.arraycopy(eventIds, index + 1, newEventIds, index, eventIds.length - index - 1);
+        System.arraycopy(scores, index + 1, newScores, index, scores.length - index - 1);
+        return new EventNeighbours(newEventIds, newScores);
+    }
+
+    public static EventNeighbours of(long[] eventIds, double[] scores) {
+        int[] order = new int[eventIds.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        sortByScoreDescending(order, new int[order.length], scores, 0, order.length);
+        long[] sortedEventIds = new long[eventIds.length];
+        double[] sortedScores = new double[scores.length];
+        for (int i = 0; i < order.length; i++) {
+            sortedEventIds[i] = eventIds[order[i]];
+            sortedScores[i] = scores[order[i]];
+        }
+        return new EventNeighbours(sortedEventIds, sortedScores);
+    }
+
+    private static void sortByScoreDescending(int[] order, int[] buffer, double[] scores, int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        sortByScoreDescending(order, buffer, scores, from, middle);
+        sortByScoreDescending(order, buffer, scores, middle, to);
+        System.arraycopy(order, from, buffer, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int k = from; k < to; k++) {
+            if (right == to || (left < middle && scores[buffer[left]] >= scores[buffer[right]])) {
+                order[k] = buffer[left++];
+            } else {
+                order[k] = buffer[right++];
+            }
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package ru.practicum.cache;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keys whose database load is in progress, and which of them were updated by an applied batch
+ * meanwhile. Not thread-safe: callers hold the cache lock.
+ */
+final class InFlightLoads {
+    private final Map<Long, Integer> loading = new HashMap<>();
+    private final Set<Long> touched = new HashSet<>();
+
+    void begin(long key) {
+        loading.merge(key, 1, Integer::sum);
+    }
+
+    /**
+     * @return whether the finished load may be cached, i.e. no batch touched the key while it ran
+     */
+    boolean end(long key) {
+        boolean fresh = !touched.contains(key);
+        if (loading.compute(key, (id, count) -> count == 1 ? null : count - 1) == null) {
+            touched.remove(key);
+        }
+        return fresh;
+    }
+
+    void touch(long key) {
+        if (loading.containsKey(key)) {
+            touched.add(key);
+        }
+    }
+}
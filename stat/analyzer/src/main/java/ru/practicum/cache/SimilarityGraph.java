@@ -0,0 +1,169 @@
+package ru.practicum.cache;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import ru.practicum.config.AnalyzerProperties;
+import ru.practicum.model.EventSimilarity;
+import ru.practicum.repository.EventSimilarityRepository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Adjacency lists of the similarity graph. An event is loaded from the database on the first lookup
+ * and afterwards kept current by {@link #apply} once each similarity batch is committed. At most
+ * {@code maxSize} events are kept, the least recently used are evicted.
+ * <p>
+ * A load is returned but not cached if a batch touching the same event was applied while it ran,
+ * because it may have read rows from before that batch. Batches for other events do not affect it.
+ * In-flight loads are tracked under the lock {@link #apply} holds, so a batch cannot slip in between
+ * the check and the insert.
+ */
+@Slf4j
+@Component
+public class SimilarityGraph {
+    private final EventSimilarityRepository eventSimilarityRepository;
+    private final Map<Long, EventNeighbours> neighbours;
+    private final InFlightLoads inFlightLoads = new InFlightLoads();
+
+    public SimilarityGraph(EventSimilarityRepository eventSimilarityRepository, AnalyzerProperties properties) {
+        this.eventSimilarityRepository = eventSimilarityRepository;
+        int maxSize = properties.getSimilarityCache().getMaxSize();
+        this.neighbours = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, EventNeighbours> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    public EventNeighbours getNeighbours(long eventId) {
+        synchronized (neighbours) {
+            EventNeighbours cached = neighbours.get(eventId);
+            if (cached != null) {
+                return cached;
+            }
+            inFlightLoads.begin(eventId);
+        }
+        EventNeighbours loaded = null;
+        try {
+            loaded = load(eventId);
+            return loaded;
+        } finally {
+            synchronized (neighbours) {
+                if (inFlightLoads.end(eventId) && loaded != null) {
+                    neighbours.putIfAbsent(eventId, loaded);
+                }
+            }
+        }
+    }
+
+    /**
+     * Neighbours of several events at once; all events missing from the cache are loaded with one query.
+     */
+    public EventNeighbours[] getNeighbours(long[] eventIds) {
+        EventNeighbours[] result = new EventNeighbours[eventIds.length];
+        Set<Long> missing = new HashSet<>();
+        synchronized (neighbours) {
+            for (int i = 0; i < eventIds.length; i++) {
+                result[i] = neighbours.get(eventIds[i]);
+                if (result[i] == null) {
+                    missing.add(eventIds[i]);
+                }
+            }
+            missing.forEach(inFlightLoads::begin);
+        }
+        if (missing.isEmpty()) {
+            return result;
+        }
+
+        Map<Long, EventNeighbours> loaded = Map.of();
+        try {
+            loaded = loadAll(missing);
+        } finally {
+            synchronized (neighbours) {
+                for (Long eventId : missing) {
+                    EventNeighbours eventNeighbours = loaded.get(eventId);
+                    if (inFlightLoads.end(eventId) && eventNeighbours != null) {
+                        neighbours.putIfAbsent(eventId, eventNeighbours);
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < eventIds.length; i++) {
+            if (result[i] == null) {
+                result[i] = loaded.get(eventIds[i]);
+            }
+        }
+        return result;
+    }
+
+    public void apply(Collection<EventSimilarity> upserted, Collection<EventSimilarity> removed) {
+        synchronized (neighbours) {
+            for (EventSimilarity similarity : upserted) {
+                long aEventId = similarity.getAeventId();
+                long bEventId = similarity.getBeventId();
+                inFlightLoads.touch(aEventId);
+                inFlightLoads.touch(bEventId);
+                double score = similarity.getScore();
+                neighbours.computeIfPresent(aEventId, (id, current) -> current.with(bEventId, score));
+                neighbours.computeIfPresent(bEventId, (id, current) -> current.with(aEventId, score));
+            }
+            for (EventSimilarity similarity : removed) {
+                long aEventId = similarity.getAeventId();
+                long bEventId = similarity.getBeventId();
+                inFlightLoads.touch(aEventId);
+                inFlightLoads.touch(bEventId);
+                neighbours.computeIfPresent(aEventId, (id, current) -> current.without(bEventId));
+                neighbours.computeIfPresent(bEventId, (id, current) -> current.without(aEventId));
+            }
+        }
+    }
+
+    public int size() {
+        synchronized (neighbours) {
+            return neighbours.size();
+        }
+    }
+
+    private Map<Long, EventNeighbours> loadAll(Set<Long> eventIds) {
+        Map<Long, List<EventSimilarity>> byEvent = new HashMap<>();
+        for (EventSimilarity similarity : eventSimilarityRepository.findAllByEventIn(eventIds)) {
+            if (eventIds.contains(similarity.getAeventId())) {
+                byEvent.computeIfAbsent(similarity.getAeventId(), id -> new ArrayList<>()).add(similarity);
+            }
+            if (eventIds.contains(similarity.getBeventId())) {
+                byEvent.computeIfAbsent(similarity.getBeventId(), id -> new ArrayList<>()).add(similarity);
+            }
+        }
+        Map<Long, EventNeighbours> loaded = new HashMap<>(eventIds.size());
+        for (Long eventId : eventIds) {
+            loaded.put(eventId, toNeighbours(eventId, byEvent.getOrDefault(eventId, List.of())));
+        }
+        log.debug("Загружены соседи {} событий одним запросом", eventIds.size());
+        return loaded;
+    }
+
+    private EventNeighbours load(long eventId) {
+        EventNeighbours loaded = toNeighbours(eventId, eventSimilarityRepository.findAllByEvent(eventId));
+        log.debug("Загружено {} соседей события {}", loaded.size(), eventId);
+        return loaded;
+    }
+
+    private static EventNeighbours toNeighbours(long eventId, List<EventSimilarity> similarities) {
+        long[] eventIds = new long[similarities.size()];
+        double[] scores = new double[similarities.size()];
+        for (int i = 0; i < similarities.size(); i++) {
+            EventSimilarity similarity = similarities.get(i);
+            eventIds[i] = similarity.getAeventId() == eventId ? similarity.getBeventId() : similarity.getAeventId();
+            scores[i] = similarity.getScore();
+        }
+        return EventNeighbours.of(eventIds, scores);
+    }
+}
@@ -0,0 +1,189 @@
+package ru.practicum.cache;
+
+import ru.practicum.model.UserAction;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Immutable interactions of one user: event ids in ascending order with the weight and the time
+ * of the latest action on each. Updates return a copy, made once per batch of actions.
+ * <p>
+ * Event ids are also hashed into an open-addressing table, so {@link #contains} costs one or two probes
+ * instead of a binary search, which matters when every candidate of a heavy user is checked.
+ */
+public final class UserProfile {
+    private static final long FREE_SLOT = 0L;
+
+    public static final UserProfile EMPTY = new UserProfile(new long[0], new double[0], new long[0]);
+
+    private final long[] eventIds;
+    private final double[] weights;
+    private final long[] created;
+    private final long[] eventIdTable;
+    private final int tableMask;
+    private final boolean containsZero;
+    private volatile int[] recentOrder;
+
+    private UserProfile(long[] eventIds, double[] weights, long[] created) {
+        this.eventIds = eventIds;
+        this.weights = weights;
+        this.created = created;
+
+        int capacity = Integer.highestOneBit(Math.max(2, eventIds.length * 2 - 1)) << 1;
+        eventIdTable = new long[capacity];
+        tableMask = capacity - 1;
+        boolean zero = false;
+        for (long eventId : eventIds) {
+            if (eventId == FREE_SLOT) {
+                zero = true;
+                continue;
+            }
+            int slot = hash(eventId) & tableMask;
+            while (eventIdTable[slot] != FREE_SLOT) {
+                slot = (slot + 1) & tableMask;
+            }
+            eventIdTable[slot] = eventId;
+        }
+        containsZero = zero;
+    }
+
+    public int size() {
+        return eventIds.length;
+    }
+
+    public long getEventId(int index) {
+        return eventIds[index];
+    }
+
+    public double getWeight(int index) {
+        return weights[index];
+    }
+
+    public boolean contains(long eventId) {
+        if (eventId == FREE_SLOT) {
+            return containsZero;
+        }
+        int slot = hash(eventId) & tableMask;
+        long current;
+        while ((current = eventIdTable[slot]) != FREE_SLOT) {
+            if (current == eventId) {
+                return true;
+            }
+            slot = (slot + 1) & tableMask;
+        }
+        return false;
+    }
+
+    public double getWeight(long eventId, double defaultValue) {
+        int index = Arrays.binarySearch(eventIds, eventId);
+        return index < 0 ? defaultValue : weights[index];
+    }
+
+    /**
+     * @return ids of up to {@code limit} events the user interacted with most recently, newest first
+     */
+    public long[] recentEventIds(long limit) {
+        int[] order = recentOrder();
+        long[] recent = new long[(int) Math.min(limit, order.length)];
+        for (int i = 0; i < recent.length; i++) {
+            recent[i] = eventIds[order[i]];
+        }
+        return recent;
+    }
+
+    /**
+     * Applies a batch of stored actions the same way the database upsert does: the greater weight wins,
+     * the action time is replaced. The profile is rebuilt once per batch by merging the sorted actions
+     * into the arrays, instead of once per action.
+     */
+    public UserProfile withAll(Collection<UserAction> userActions) {
+        if (userActions.isEmpty()) {
+            return this;
+        }
+        UserAction[] sorted = userActions.toArray(new UserAction[0]);
+        Arrays.sort(sorted, Comparator.comparingLong(UserAction::getEventId));
+
+        long[] newEventIds = new long[eventIds.length + sorted.length];
+        double[] newWeights = new double[newEventIds.length];
+        long[] newCreated = new long[newEventIds.length];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < eventIds.length || j < sorted.length) {
+            if (j == sorted.length || (i < eventIds.length && eventIds[i] < sorted[j].getEventId())) {
+                newEventIds[size] = eventIds[i];
+                newWeights[size] = weights[i];
+                newCreated[size] = created[i];
+                size++;
+                i++;
+                continue;
+            }
+            long eventId = sorted[j].getEventId();
+            boolean known = i < eventIds.length && eventIds[i] == eventId;
+            double weight = known ? weights[i] : Double.NEGATIVE_INFINITY;
+            long createdAt = known ? created[i] : 0L;
+            if (known) {
+                i++;
+            }
+            while (j < sorted.length && sorted[j].getEventId() == eventId) {
+                weight = Math.max(weight, sorted[j].getWeight());
+                createdAt = sorted[j].getCreated().toEpochMilli();
+                j++;
+            }
+            newEventIds[size] = eventId;
+            newWeights[size] = weight;
+            newCreated[size] = createdAt;
+            size++;
+        }
+        return new UserProfile(Arrays.copyOf(newEventIds, size), Arrays.copyOf(newWeights, size),
+                Arrays.copyOf(newCreated, size));
+    }
+
+    public static UserProfile of(List<UserAction> userActions) {
+        return EMPTY.withAll(userActions);
+    }
+
+    /**
+     * Indexes of the events ordered by action time, newest first. Computed once per profile, on the first
+     * request that needs it.
+     */
+    private int[] recentOrder() {
+        int[] order = recentOrder;
+        if (order == null) {
+            order = new int[eventIds.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            sortByCreatedDescending(order, new int[order.length], 0, order.length);
+            recentOrder = order;
+        }
+        return order;
+    }
+
+    private void sortByCreatedDescending(int[] order, int[] buffer, int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        sortByCreatedDescending(order, buffer, from, middle);
+        sortByCreatedDescending(order, buffer, middle, to);
+        System.arraycopy(order, from, buffer, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int k = from; k < to; k++) {
+            if (right == to || (left < middle && created[buffer[left]] >= created[buffer[right]])) {
+                order[k] = buffer[left++];
+            } else {
+                order[k] = buffer[right++];
+            }
+        }
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
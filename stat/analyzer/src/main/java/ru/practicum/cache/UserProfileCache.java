@@ -0,0 +1,97 @@
+package ru.practicum.cache;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import ru.practicum.config.AnalyzerProperties;
+import ru.practicum.model.UserAction;
+import ru.practicum.repository.UserActionRepository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * LRU cache of user profiles bounded by size and age. Profiles are loaded on a miss and updated
+ * in place by {@link #apply} after each batch of user actions is committed. As in
+ * {@link SimilarityGraph}, a load is not cached only if a batch with actions of the same user was
+ * applied while it ran; in-flight loads are tracked under the lock {@link #apply} holds.
+ */
+@Slf4j
+@Component
+public class UserProfileCache {
+    private final UserActionRepository userActionRepository;
+    private final long ttlMillis;
+    private final Map<Long, Entry> entries;
+    private final InFlightLoads inFlightLoads = new InFlightLoads();
+
+    public UserProfileCache(UserActionRepository userActionRepository, AnalyzerProperties properties) {
+        this.userActionRepository = userActionRepository;
+        AnalyzerProperties.ProfileCache cache = properties.getProfileCache();
+        this.ttlMillis = cache.getTtl().toMillis();
+        int maxSize = cache.getMaxSize();
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    public UserProfile get(long userId) {
+        long now = System.currentTimeMillis();
+        synchronized (entries) {
+            Entry entry = entries.get(userId);
+            if (entry != null && now - entry.loadedAt < ttlMillis) {
+                return entry.profile;
+            }
+            inFlightLoads.begin(userId);
+        }
+        UserProfile loaded = null;
+        try {
+            loaded = UserProfile.of(userActionRepository.findAllByUserId(userId));
+        } finally {
+            synchronized (entries) {
+                if (inFlightLoads.end(userId) && loaded != null) {
+                    entries.put(userId, new Entry(loaded, now));
+                }
+            }
+        }
+        log.debug("Загружен профиль пользователя {}: {} событий", userId, loaded.size());
+        return loaded;
+    }
+
+    public void apply(Collection<UserAction> userActions) {
+        Map<Long, List<UserAction>> byUser = new HashMap<>();
+        for (UserAction userAction : userActions) {
+            byUser.computeIfAbsent(userAction.getUserId(), id -> new ArrayList<>()).add(userAction);
+        }
+        synchronized (entries) {
+            for (Map.Entry<Long, List<UserAction>> actions : byUser.entrySet()) {
+                inFlightLoads.touch(actions.getKey());
+                Entry entry = entries.get(actions.getKey());
+                if (entry != null) {
+                    entries.put(actions.getKey(), new Entry(entry.profile.withAll(actions.getValue()), entry.loadedAt));
+                }
+            }
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private static final class Entry {
+        private final UserProfile profile;
+        private final long loadedAt;
+
+        private Entry(UserProfile profile, long loadedAt) {
+            this.profile = profile;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
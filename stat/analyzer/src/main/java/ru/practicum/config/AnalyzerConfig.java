@@ -0,0 +1,9 @@
+package ru.practicum.config;
+
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@EnableConfigurationProperties({AnalyzerProperties.class})
+public class AnalyzerConfig {
+}
@@ -0,0 +1,39 @@
+package ru.practicum.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "analyzer")
+public class AnalyzerProperties {
+    private ProfileCache profileCache = new ProfileCache();
+    private SimilarityCache similarityCache = new SimilarityCache();
+    private Materialization materialization = new Materialization();
+
+    @Getter
+    @Setter
+    public static class ProfileCache {
+        private int maxSize = 10_000;
+        private Duration ttl = Duration.ofMinutes(10);
+    }
+
+    @Getter
+    @Setter
+    public static class SimilarityCache {
+        private int maxSize = 100_000;
+    }
+
+    @Getter
+    @Setter
+    public static class Materialization {
+        private boolean enabled;
+        private int maxUsers = 10_000;
+        private Duration refreshInterval = Duration.ofSeconds(5);
+        private Duration idleTimeout = Duration.ofMinutes(30);
+        private Duration maxAge = Duration.ofMinutes(10);
+    }
+}
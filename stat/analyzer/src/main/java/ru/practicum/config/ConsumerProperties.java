@@ -14,4 +14,11 @@ public class ConsumerProperties {
     private String valueDeserializer;
     private long attemptTimeout;
     private String enableAutoCommit;
+    private boolean reuseDecoder;
+    private String isolationLevel;
+    private int workers = 1;
+    /**
+     * Failed attempts in a row after which a worker stores records one by one and skips the failing ones.
+     */
+    private int maxAttempts = 3;
 }
\ No newline at end of file
@@ -4,8 +4,8 @@ import lombok.Getter;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
-import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import ru.practicum.avro.BaseAvroDeserializer;
 import ru.practicum.ewm.stats.avro.EventSimilarityAvro;
 import ru.practicum.ewm.stats.avro.UserActionAvro;
 
@@ -21,34 +21,48 @@ public class KafkaConfig {
         this.kafkaProperties = properties;
     }
 
-    @Bean
-    public KafkaConsumer<Long, EventSimilarityAvro> getEventSimilarityConsumer() {
+    public KafkaConsumer<Long, EventSimilarityAvro> createEventSimilarityConsumer(int index) {
         Properties props = new Properties();
         props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, kafkaProperties.getBootstrapServers());
         props.put(ConsumerConfig.GROUP_ID_CONFIG, kafkaProperties.getEventSimilarityConsumer().getGroupId());
-        props.put(ConsumerConfig.CLIENT_ID_CONFIG, kafkaProperties.getEventSimilarityConsumer().getClientId());
+        props.put(ConsumerConfig.CLIENT_ID_CONFIG,
+                kafkaProperties.getEventSimilarityConsumer().getClientId() + "-" + index);
         props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG,
                 kafkaProperties.getEventSimilarityConsumer().getKeyDeserializer());
         props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG,
                 kafkaProperties.getEventSimilarityConsumer().getValueDeserializer());
         props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG,
                 kafkaProperties.getEventSimilarityConsumer().getEnableAutoCommit());
+        props.put(BaseAvroDeserializer.REUSE_DECODER_CONFIG,
+                kafkaProperties.getEventSimilarityConsumer().isReuseDecoder());
+        putIfPresent(props, ConsumerConfig.ISOLATION_LEVEL_CONFIG,
+                kafkaProperties.getEventSimilarityConsumer().getIsolationLevel());
 
         return new KafkaConsumer<>(props);
     }
 
-    @Bean
-    public KafkaConsumer<Long, UserActionAvro> getUserActionConsumer() {
+    public KafkaConsumer<Long, UserActionAvro> createUserActionConsumer(int index) {
         Properties props = new Properties();
         props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, kafkaProperties.getBootstrapServers());
         props.put(ConsumerConfig.GROUP_ID_CONFIG, kafkaProperties.getUserActionConsumer().getGroupId());
-        props.put(ConsumerConfig.CLIENT_ID_CONFIG, kafkaProperties.getUserActionConsumer().getClientId());
+        props.put(ConsumerConfig.CLIENT_ID_CONFIG,
+                kafkaProperties.getUserActionConsumer().getClientId() + "-" + index);
         props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG,
                 kafkaProperties.getUserActionConsumer().getKeyDeserializer());
         props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG,
                 kafkaProperties.getUserActionConsumer().getValueDeserializer());
         props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG,
                 kafkaProperties.getUserActionConsumer().getEnableAutoCommit());
+        props.put(BaseAvroDeserializer.REUSE_DECODER_CONFIG,
+                kafkaProperties.getUserActionConsumer().isReuseDecoder());
+        putIfPresent(props, ConsumerConfig.ISOLATION_LEVEL_CONFIG,
+                kafkaProperties.getUserActionConsumer().getIsolationLevel());
         return new KafkaConsumer<>(props);
     }
+
+    private static void putIfPresent(Properties properties, String key, Object value) {
+        if (value != null) {
+            properties.put(key, value);
+        }
+    }
 }
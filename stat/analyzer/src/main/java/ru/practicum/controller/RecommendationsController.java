@@ -1,5 +1,6 @@
 package ru.practicum.controller;
 
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -9,24 +10,27 @@ import ru.practicum.grpc.stat.request.InteractionsCountRequestProto;
 import ru.practicum.grpc.stat.request.RecommendedEventProto;
 import ru.practicum.grpc.stat.request.SimilarEventsRequestProto;
 import ru.practicum.grpc.stat.request.UserPredictionsRequestProto;
+import ru.practicum.service.RecommendationMaterializer;
 import ru.practicum.service.RecommendationService;
 
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @GrpcService
 @Slf4j
 @RequiredArgsConstructor
 public class RecommendationsController extends RecommendationsControllerGrpc.RecommendationsControllerImplBase {
     private final RecommendationService recommendationService;
+    private final RecommendationMaterializer recommendationMaterializer;
 
     @Override
     public void getRecommendationsForUser(UserPredictionsRequestProto request,
                                           StreamObserver<RecommendedEventProto> responseObserver) {
         log.info("Получен запрос на рекомендации для пользователя: {}", request);
         try {
-            List<RecommendedEventProto> recommendedEvents = recommendationService.generateRecommendationsForUser(request);
-            recommendedEvents.forEach(responseObserver::onNext);
-            responseObserver.onCompleted();
+            List<RecommendedEventProto> recommendedEvents = recommendationMaterializer.getRecommendations(request);
+            stream(recommendedEvents.iterator(), responseObserver);
             log.info("Успешно сформированы рекомендации для пользователя");
         } catch (Exception e) {
             log.error("Ошибка при формировании рекомендаций для пользователя: {}", request, e);
@@ -42,9 +46,7 @@ public class RecommendationsController extends RecommendationsControllerGrpc.Rec
                                  StreamObserver<RecommendedEventProto> responseObserver) {
         log.info("Получен запрос на поиск похожих событий: {}", request);
         try {
-            List<RecommendedEventProto> similarEvents = recommendationService.getSimilarEvents(request);
-            similarEvents.forEach(responseObserver::onNext);
-            responseObserver.onCompleted();
+            stream(recommendationService.getSimilarEvents(request), responseObserver);
             log.info("Успешно найдены похожие события");
         } catch (Exception e) {
             log.error("Ошибка при поиске похожих событий: {}", request, e);
@@ -61,8 +63,7 @@ public class RecommendationsController extends RecommendationsControllerGrpc.Rec
         log.info("Получен запрос на получение количества взаимодействий: {}", request);
         try {
             List<RecommendedEventProto> interactions = recommendationService.getInteractionsCount(request);
-            interactions.forEach(responseObserver::onNext);
-            responseObserver.onCompleted();
+            stream(interactions.iterator(), responseObserver);
             log.info("Успешно получено количество взаимодействий");
         } catch (Exception e) {
             log.error("Ошибка при получении количества взаимодействий: {}", request, e);
@@ -72,4 +73,44 @@ public class RecommendationsController extends RecommendationsControllerGrpc.Rec
                     .asRuntimeException());
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Sends the results only while the client can take them: the rest are pulled from the iterator when
+     * the call becomes ready again, and a cancelled call stops pulling, so lazily computed results the
+     * client never reads are not computed at all.
+     */
+    private static void stream(Iterator<RecommendedEventProto> results,
+                               StreamObserver<RecommendedEventProto> responseObserver) {
+        ServerCallStreamObserver<RecommendedEventProto> serverObserver =
+                (ServerCallStreamObserver<RecommendedEventProto>) responseObserver;
+        AtomicBoolean done = new AtomicBoolean();
+        Runnable drain = () -> {
+            synchronized (done) {
+                try {
+                    while (!done.get() && serverObserver.isReady() && results.hasNext()) {
+                        serverObserver.onNext(results.next());
+                    }
+                    if (!done.get() && !results.hasNext()) {
+                        done.set(true);
+                        serverObserver.onCompleted();
+                    }
+                } catch (Exception e) {
+                    if (!done.getAndSet(true)) {
+                        log.error("Ошибка при отправке ответа", e);
+                        serverObserver.onError(io.grpc.Status.INTERNAL
+                                .withDescription("Ошибка сервера при отправке ответа: " + e.getMessage())
+                                .withCause(e)
+                                .asRuntimeException());
+                    }
+                }
+            }
+        };
+        serverObserver.setOnCancelHandler(() -> {
+            if (!done.getAndSet(true)) {
+                log.debug("Клиент отменил запрос, отправка ответа остановлена");
+            }
+        });
+        serverObserver.setOnReadyHandler(drain);
+        drain.run();
+    }
+}
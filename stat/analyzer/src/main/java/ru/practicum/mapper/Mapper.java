@@ -1,5 +1,6 @@
 package ru.practicum.mapper;
 
+import ru.practicum.ewm.stats.PairKey;
 import ru.practicum.ewm.stats.avro.ActionTypeAvro;
 import ru.practicum.ewm.stats.avro.EventSimilarityAvro;
 import ru.practicum.ewm.stats.avro.UserActionAvro;
@@ -34,6 +35,17 @@ public class Mapper {
 
     }
 
+    public static long toPairKey(long aEventId, long bEventId) {
+        return PairKey.pack(aEventId, bEventId);
+    }
+
+    public static EventSimilarity mapToEventSimilarity(long pairKey) {
+        return EventSimilarity.builder()
+                .aeventId(PairKey.first(pairKey))
+                .beventId(PairKey.second(pairKey))
+                .build();
+    }
+
     public static RecommendedEventProto mapToRecommendedEventProto(RecommendedEvent recommendedEvent) {
         return RecommendedEventProto.newBuilder()
                 .setEventId(recommendedEvent.getEventId())
@@ -0,0 +1,257 @@
+package ru.practicum.processor;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.RecordDeserializationException;
+import org.apache.kafka.common.errors.WakeupException;
+import ru.practicum.config.ConsumerProperties;
+import ru.practicum.util.SampledLogger;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Drains a topic with {@code workers} threads, each owning its own consumer in the same group, so every
+ * partition is still processed in order by a single thread. Offsets are committed after each batch is
+ * stored; on shutdown the consumers are woken up and the current batches are allowed to finish. A worker
+ * whose batch failed is restarted with a new consumer; after {@code maxAttempts} failures in a row it
+ * stores records one by one and skips those that still fail, so one bad record cannot stall a partition.
+ */
+@Slf4j
+public abstract class BatchProcessor<V> implements Runnable, MeterBinder {
+    private static final Duration SHUTDOWN_TIMEOUT = Duration.ofSeconds(30);
+    private static final Duration RESTART_DELAY = Duration.ofSeconds(5);
+    private static final int STOPPED = -1;
+
+    private final SampledLogger batchLog = new SampledLogger(log, Duration.ofSeconds(10));
+    private final LongAdder processedRecords = new LongAdder();
+    private volatile boolean closing;
+
+    protected abstract ConsumerProperties getConsumerProperties();
+
+    protected abstract String getTopic();
+
+    protected abstract Consumer<Long, V> createConsumer(int index);
+
+    protected abstract void handleBatch(ConsumerRecords<Long, V> records);
+
+    @Override
+    public void run() {
+        int workers = Math.max(1, getConsumerProperties().getWorkers());
+        AtomicReferenceArray<Consumer<Long, V>> consumers = new AtomicReferenceArray<>(workers);
+
+        String name = getClass().getSimpleName();
+        AtomicInteger threadIndex = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(workers,
+                runnable -> new Thread(runnable, name + "-" + threadIndex.getAndIncrement()));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            closing = true;
+            for (int i = 0; i < workers; i++) {
+                Consumer<Long, V> consumer = consumers.get(i);
+                if (consumer != null) {
+                    consumer.wakeup();
+                }
+            }
+            awaitTermination(executor, SHUTDOWN_TIMEOUT);
+        }));
+        for (int i = 0; i < workers; i++) {
+            int index = i;
+            executor.execute(() -> runWorker(index, consumers));
+        }
+        executor.shutdown();
+        log.info("{} читает {} в {} потоках", name, getTopic(), workers);
+        awaitTermination(executor, Duration.ofMillis(Long.MAX_VALUE));
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("analyzer.records.processed", processedRecords, LongAdder::sum)
+                .tag("topic", getTopic())
+                .description("Количество обработанных записей из топика")
+                .register(registry);
+    }
+
+    /**
+     * Runs a worker until shutdown. A worker whose batch failed closes its consumer and starts over with
+     * a new one after {@code RESTART_DELAY}, resuming from the committed offsets, so its partitions are
+     * not silently left to the other workers.
+     */
+    private void runWorker(int index, AtomicReferenceArray<Consumer<Long, V>> consumers) {
+        int failedAttempts = 0;
+        while (!closing) {
+            Consumer<Long, V> consumer = createConsumer(index);
+            consumers.set(index, consumer);
+            if (closing) {
+                consumer.close();
+                return;
+            }
+            failedAttempts = consume(consumer, failedAttempts);
+            if (failedAttempts == STOPPED || closing) {
+                return;
+            }
+            log.warn("Обработчик {} из {} будет перезапущен через {}, неудачных попыток подряд: {}",
+                    index, getTopic(), RESTART_DELAY, failedAttempts);
+            try {
+                Thread.sleep(RESTART_DELAY.toMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Offsets of each batch are committed right after it is stored, only for its own partitions, and then
+     * forgotten. Offsets still pending when partitions are revoked are committed by the rebalance listener
+     * and dropped, so a worker never commits a partition it no longer owns. A failed commit ends the worker,
+     * which restarts from the committed offsets; the upserts make storing the batch again harmless.
+     * Once {@code maxAttempts} attempts in a row have failed, the next batch is stored record by record.
+     *
+     * @param failedAttempts failed attempts in a row before this one
+     * @return failed attempts in a row including this one, or {@code STOPPED} on shutdown
+     */
+    private int consume(Consumer<Long, V> consumer, int failedAttempts) {
+        Map<TopicPartition, OffsetAndMetadata> uncommitted = new HashMap<>();
+        int maxAttempts = getConsumerProperties().getMaxAttempts();
+        try {
+            consumer.subscribe(List.of(getTopic()), new ConsumerRebalanceListener() {
+                @Override
+                public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+                    commitRevoked(consumer, uncommitted, partitions);
+                }
+
+                @Override
+                public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+                }
+
+                @Override
+                public void onPartitionsLost(Collection<TopicPartition> partitions) {
+                    partitions.forEach(uncommitted::remove);
+                }
+            });
+            while (true) {
+                ConsumerRecords<Long, V> records;
+                try {
+                    records = consumer.poll(Duration.ofMillis(getConsumerProperties().getAttemptTimeout()));
+                } catch (RecordDeserializationException e) {
+                    if (failedAttempts < maxAttempts) {
+                        throw e;
+                    }
+                    log.error("Запись {} с оффсетом {} не прочитана за {} попыток и пропущена",
+                            e.topicPartition(), e.offset(), failedAttempts, e);
+                    consumer.seek(e.topicPartition(), e.offset() + 1);
+                    continue;
+                }
+                if (!records.isEmpty()) {
+                    long started = System.nanoTime();
+                    if (failedAttempts < maxAttempts) {
+                        handleBatch(records);
+                    } else {
+                        handleOneByOne(records, failedAttempts);
+                    }
+                    failedAttempts = 0;
+
+                    for (TopicPartition partition : records.partitions()) {
+                        List<ConsumerRecord<Long, V>> partitionRecords = records.records(partition);
+                        long lastOffset = partitionRecords.get(partitionRecords.size() - 1).offset();
+                        uncommitted.put(partition, new OffsetAndMetadata(lastOffset + 1));
+                    }
+                    consumer.commitSync(uncommitted);
+                    uncommitted.clear();
+
+                    processedRecords.add(records.count());
+                    long elapsedNanos = Math.max(1, System.nanoTime() - started);
+                    batchLog.info("Обработано {} записей из {} за {} мс ({} записей/с)", records.count(), getTopic(),
+                            elapsedNanos / 1_000_000, records.count() * 1_000_000_000L / elapsedNanos);
+                }
+            }
+
+        } catch (WakeupException ignores) {
+            uncommitted.keySet().retainAll(consumer.assignment());
+            if (!uncommitted.isEmpty()) {
+                consumer.commitSync(uncommitted);
+            }
+            return STOPPED;
+        } catch (Exception e) {
+            log.error("Ошибка во время обработки записей из {}", getTopic(), e);
+            return failedAttempts + 1;
+        } finally {
+            log.info("Закрываем консьюмер");
+            consumer.close();
+        }
+    }
+
+    /**
+     * Stores records one at a time, in order, skipping those that fail. If none of them could be stored,
+     * the fault is more likely in the storage than in the records, so the batch fails as a whole and
+     * nothing is skipped.
+     */
+    private void handleOneByOne(ConsumerRecords<Long, V> records, int failedAttempts) {
+        List<ConsumerRecord<Long, V>> failed = new ArrayList<>();
+        RuntimeException lastError = null;
+        for (TopicPartition partition : records.partitions()) {
+            for (ConsumerRecord<Long, V> record : records.records(partition)) {
+                try {
+                    handleBatch(new ConsumerRecords<>(Map.of(partition, List.of(record))));
+                } catch (RuntimeException e) {
+                    failed.add(record);
+                    lastError = e;
+                }
+            }
+        }
+        if (failed.size() == records.count()) {
+            throw lastError;
+        }
+        for (ConsumerRecord<Long, V> record : failed) {
+            log.error("Запись {}-{} с оффсетом {} не сохранена за {} попыток и пропущена",
+                    record.topic(), record.partition(), record.offset(), failedAttempts + 1);
+        }
+    }
+
+    private void commitRevoked(Consumer<Long, V> consumer, Map<TopicPartition, OffsetAndMetadata> uncommitted,
+                               Collection<TopicPartition> partitions) {
+        Map<TopicPartition, OffsetAndMetadata> revoked = new HashMap<>();
+        for (TopicPartition partition : partitions) {
+            OffsetAndMetadata offset = uncommitted.remove(partition);
+            if (offset != null) {
+                revoked.put(partition, offset);
+            }
+        }
+        if (revoked.isEmpty()) {
+            return;
+        }
+        try {
+            consumer.commitSync(revoked);
+        } catch (Exception e) {
+            log.warn("Не удалось зафиксировать оффсеты отозванных партиций {}", revoked, e);
+        }
+    }
+
+    private static void awaitTermination(ExecutorService executor, Duration timeout) {
+        try {
+            if (!executor.awaitTermination(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                log.warn("Обработчики не завершились за {}", timeout);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
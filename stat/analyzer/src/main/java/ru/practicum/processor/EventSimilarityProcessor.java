@@ -5,87 +5,71 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.clients.consumer.Consumer;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
-import org.apache.kafka.clients.consumer.OffsetAndMetadata;
-import org.apache.kafka.common.TopicPartition;
-import org.apache.kafka.common.errors.WakeupException;
 import org.springframework.stereotype.Component;
+import ru.practicum.cache.SimilarityGraph;
+import ru.practicum.config.ConsumerProperties;
 import ru.practicum.config.KafkaConfig;
 import ru.practicum.ewm.stats.avro.EventSimilarityAvro;
 import ru.practicum.mapper.Mapper;
 import ru.practicum.model.EventSimilarity;
 import ru.practicum.repository.EventSimilarityRepository;
+import ru.practicum.service.RecommendationMaterializer;
 
-import java.time.Duration;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 @Slf4j
 @Component
 @RequiredArgsConstructor
-public class EventSimilarityProcessor implements Runnable {
-    private final Consumer<Long, EventSimilarityAvro> consumer;
+public class EventSimilarityProcessor extends BatchProcessor<EventSimilarityAvro> {
     private final KafkaConfig kafkaConfig;
-    private final Map<TopicPartition, OffsetAndMetadata> currentOffsets = new HashMap<>();
     private final EventSimilarityRepository eventSimilarityRepository;
+    private final SimilarityGraph similarityGraph;
+    private final RecommendationMaterializer recommendationMaterializer;
 
     @Override
-    public void run() {
-        Runtime.getRuntime().addShutdownHook(new Thread(consumer::wakeup));
-        try {
-            consumer.subscribe(List.of(kafkaConfig.getKafkaProperties().getEventsSimilarityTopic()));
-            while (true) {
-                ConsumerRecords<Long, EventSimilarityAvro> records = consumer
-                        .poll(Duration.ofMillis(kafkaConfig.getKafkaProperties()
-                                .getEventSimilarityConsumer().getAttemptTimeout()));
-                int count = 0;
-                for (ConsumerRecord<Long, EventSimilarityAvro> record : records) {
-                    handleRecord(record);
-                    manageOffsets(record, count, consumer);
-                    count++;
-                }
-            }
-
-        } catch (WakeupException ignores) {
-        } catch (Exception e) {
-            log.error("Ошибка во время обработки события похожести ", e);
-        } finally {
-
-            try {
-                consumer.commitSync(currentOffsets);
-
-            } finally {
-                log.info("Закрываем консьюмер");
-                consumer.close();
-            }
-        }
+    protected ConsumerProperties getConsumerProperties() {
+        return kafkaConfig.getKafkaProperties().getEventSimilarityConsumer();
     }
 
-    private void handleRecord(ConsumerRecord<Long, EventSimilarityAvro> consumerRecord) throws InterruptedException {
-        log.info("handleRecord {}", consumerRecord);
-        EventSimilarity eventSimilarity = Mapper.mapToEventSimilarity(consumerRecord.value());
-
-        eventSimilarityRepository.findByAeventIdAndBeventId(
-                eventSimilarity.getAeventId(),
-                eventSimilarity.getBeventId()).ifPresent(oldEventSimilarity ->
-                eventSimilarity.setId(oldEventSimilarity.getId()));
-        eventSimilarityRepository.save(eventSimilarity);
+    @Override
+    protected String getTopic() {
+        return kafkaConfig.getKafkaProperties().getEventsSimilarityTopic();
     }
 
-    private void manageOffsets(ConsumerRecord<Long, EventSimilarityAvro> consumerRecord,
-                               int count,
-                               Consumer<Long, EventSimilarityAvro> consumer) {
-        currentOffsets.put(
-                new TopicPartition(consumerRecord.topic(), consumerRecord.partition()),
-                new OffsetAndMetadata(consumerRecord.offset() + 1)
-        );
+    @Override
+    protected Consumer<Long, EventSimilarityAvro> createConsumer(int index) {
+        return kafkaConfig.createEventSimilarityConsumer(index);
+    }
 
-        if (count % 10 == 0) {
-            consumer.commitAsync(currentOffsets, (offsets, exception) -> {
-                if (exception != null) {
-                    log.warn("Ошибка во время фиксации оффсетов: {}", offsets, exception);
-                }
-            });
+    /**
+     * Collapses the batch to the latest value per pair and writes it in one transaction, in key order
+     * so that concurrent writers lock rows in the same order.
+     */
+    @Override
+    protected void handleBatch(ConsumerRecords<Long, EventSimilarityAvro> records) {
+        Map<Long, EventSimilarityAvro> latest = new TreeMap<>();
+        for (ConsumerRecord<Long, EventSimilarityAvro> record : records) {
+            EventSimilarityAvro value = record.value();
+            long pairKey = value == null ? record.key() : Mapper.toPairKey(value.getEventA(), value.getEventB());
+            latest.put(pairKey, value);
         }
+
+        List<EventSimilarity> upserted = new ArrayList<>(latest.size());
+        List<EventSimilarity> removed = new ArrayList<>();
+        latest.forEach((pairKey, value) -> {
+            if (value == null) {
+                removed.add(Mapper.mapToEventSimilarity(pairKey));
+            } else {
+                upserted.add(Mapper.mapToEventSimilarity(value));
+            }
+        });
+        eventSimilarityRepository.saveBatch(upserted, removed);
+        similarityGraph.apply(upserted, removed);
+        recommendationMaterializer.onSimilarities(upserted, removed);
+        log.debug("Сохранено {} и удалено {} сходств из {} записей", upserted.size(), removed.size(),
+                records.count());
     }
 }
@@ -1,84 +1,54 @@
 package ru.practicum.processor;
 
 import lombok.RequiredArgsConstructor;
-import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.clients.consumer.Consumer;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
-import org.apache.kafka.clients.consumer.OffsetAndMetadata;
-import org.apache.kafka.common.TopicPartition;
-import org.apache.kafka.common.errors.WakeupException;
 import org.springframework.stereotype.Component;
+import ru.practicum.cache.UserProfileCache;
+import ru.practicum.config.ConsumerProperties;
 import ru.practicum.config.KafkaConfig;
 import ru.practicum.ewm.stats.avro.UserActionAvro;
+import ru.practicum.model.UserAction;
+import ru.practicum.service.RecommendationMaterializer;
 import ru.practicum.service.RecommendationService;
 
-import java.time.Duration;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
-@Slf4j
 @Component
 @RequiredArgsConstructor
-public class UserActionProcessor implements Runnable {
-    private final Consumer<Long, UserActionAvro> consumer;
+public class UserActionProcessor extends BatchProcessor<UserActionAvro> {
     private final KafkaConfig kafkaConfig;
-    private final Map<TopicPartition, OffsetAndMetadata> currentOffsets = new HashMap<>();
     private final RecommendationService recommendationService;
+    private final UserProfileCache userProfileCache;
+    private final RecommendationMaterializer recommendationMaterializer;
 
     @Override
-    public void run() {
-        Runtime.getRuntime().addShutdownHook(new Thread(consumer::wakeup));
-        try {
-            consumer.subscribe(List.of(kafkaConfig.getKafkaProperties().getUserActionTopic()));
-            while (true) {
-                ConsumerRecords<Long, UserActionAvro> records = consumer
-                        .poll(Duration.ofMillis(kafkaConfig.getKafkaProperties()
-                                .getUserActionConsumer().getAttemptTimeout()));
-                int count = 0;
-                for (ConsumerRecord<Long, UserActionAvro> record : records) {
-                    handleRecord(record);
-                    manageOffsets(record, count, consumer);
-                    count++;
-                }
-            }
-
-        } catch (WakeupException ignores) {
-
-        } catch (Exception e) {
-            log.error("Ошибка во время обработки события хаба ", e);
-        } finally {
-
-            try {
-                consumer.commitSync(currentOffsets);
-
-            } finally {
-                log.info("Закрываем консьюмер");
-                consumer.close();
-            }
-        }
+    protected ConsumerProperties getConsumerProperties() {
+        return kafkaConfig.getKafkaProperties().getUserActionConsumer();
     }
 
-    private void handleRecord(ConsumerRecord<Long, UserActionAvro> consumerRecord) throws InterruptedException {
-        log.info("handleRecord {}", consumerRecord);
-        recommendationService.saveUserAction(consumerRecord.value());
+    @Override
+    protected String getTopic() {
+        return kafkaConfig.getKafkaProperties().getUserActionTopic();
     }
 
-    private void manageOffsets(ConsumerRecord<Long, UserActionAvro> consumerRecord,
-                               int count,
-                               Consumer<Long, UserActionAvro> consumer) {
-        currentOffsets.put(
-                new TopicPartition(consumerRecord.topic(), consumerRecord.partition()),
-                new OffsetAndMetadata(consumerRecord.offset() + 1)
-        );
+    @Override
+    protected Consumer<Long, UserActionAvro> createConsumer(int index) {
+        return kafkaConfig.createUserActionConsumer(index);
+    }
 
-        if (count % 10 == 0) {
-            consumer.commitAsync(currentOffsets, (offsets, exception) -> {
-                if (exception != null) {
-                    log.warn("Ошибка во время фиксации оффсетов: {}", offsets, exception);
-                }
-            });
+    @Override
+    protected void handleBatch(ConsumerRecords<Long, UserActionAvro> records) {
+        List<UserActionAvro> userActions = new ArrayList<>(records.count());
+        for (ConsumerRecord<Long, UserActionAvro> record : records) {
+            if (record.value() != null) {
+                userActions.add(record.value());
+            }
         }
+        List<UserAction> saved = recommendationService.saveUserActions(userActions);
+        userProfileCache.apply(saved);
+        recommendationMaterializer.onUserActions(saved);
     }
 }
@@ -0,0 +1,10 @@
+package ru.practicum.repository;
+
+import ru.practicum.model.EventSimilarity;
+
+import java.util.Collection;
+
+public interface EventSimilarityBatchRepository {
+
+    void saveBatch(Collection<EventSimilarity> upserted, Collection<EventSimilarity> removed);
+}
@@ -0,0 +1,50 @@
+package ru.practicum.repository;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Transactional;
+import ru.practicum.model.EventSimilarity;
+
+import java.util.Collection;
+
+/**
+ * Writes a whole poll batch of similarities with two JDBC batches in one transaction.
+ * The upsert depends on the database, see {@link SqlDialects}.
+ */
+public class EventSimilarityBatchRepositoryImpl implements EventSimilarityBatchRepository {
+    private static final String POSTGRESQL_UPSERT_SQL = "INSERT INTO event_similarity (aevent_id, bevent_id, score) " +
+            "VALUES (?, ?, ?) " +
+            "ON CONFLICT (aevent_id, bevent_id) DO UPDATE SET score = excluded.score";
+    private static final String MERGE_UPSERT_SQL = "MERGE INTO event_similarity es " +
+            "USING (SELECT CAST(? AS BIGINT) AS aevent_id, CAST(? AS BIGINT) AS bevent_id, " +
+            "CAST(? AS DOUBLE PRECISION) AS score) s " +
+            "ON es.aevent_id = s.aevent_id AND es.bevent_id = s.bevent_id " +
+            "WHEN MATCHED THEN UPDATE SET score = s.score " +
+            "WHEN NOT MATCHED THEN INSERT (aevent_id, bevent_id, score) VALUES (s.aevent_id, s.bevent_id, s.score)";
+    private static final String DELETE_SQL = "DELETE FROM event_similarity WHERE aevent_id = ? AND bevent_id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String upsertSql;
+
+    public EventSimilarityBatchRepositoryImpl(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.upsertSql = SqlDialects.isPostgreSql(jdbcTemplate) ? POSTGRESQL_UPSERT_SQL : MERGE_UPSERT_SQL;
+    }
+
+    @Override
+    @Transactional
+    public void saveBatch(Collection<EventSimilarity> upserted, Collection<EventSimilarity> removed) {
+        if (!upserted.isEmpty()) {
+            jdbcTemplate.batchUpdate(upsertSql, upserted, upserted.size(), (ps, similarity) -> {
+                ps.setLong(1, similarity.getAeventId());
+                ps.setLong(2, similarity.getBeventId());
+                ps.setDouble(3, similarity.getScore());
+            });
+        }
+        if (!removed.isEmpty()) {
+            jdbcTemplate.batchUpdate(DELETE_SQL, removed, removed.size(), (ps, similarity) -> {
+                ps.setLong(1, similarity.getAeventId());
+                ps.setLong(2, similarity.getBeventId());
+            });
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package ru.practicum.repository;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.MetaDataAccessException;
+
+import java.sql.DatabaseMetaData;
+import java.util.Objects;
+
+/**
+ * PostgreSQL gets {@code INSERT ... ON CONFLICT}, which resolves concurrent inserts of the same key on
+ * the unique constraint; a {@code MERGE} there fails one of them with a unique violation. H2 of the dev
+ * profile has no {@code ON CONFLICT ... DO UPDATE} and keeps the standard {@code MERGE}.
+ */
+final class SqlDialects {
+    private static final String POSTGRESQL = "PostgreSQL";
+
+    private SqlDialects() {
+    }
+
+    static boolean isPostgreSql(JdbcTemplate jdbcTemplate) {
+        try {
+            String product = JdbcUtils.extractDatabaseMetaData(Objects.requireNonNull(jdbcTemplate.getDataSource()),
+                    DatabaseMetaData::getDatabaseProductName);
+            return POSTGRESQL.equals(product);
+        } catch (MetaDataAccessException e) {
+            throw new IllegalStateException("Не удалось определить тип базы данных", e);
+        }
+    }
+}
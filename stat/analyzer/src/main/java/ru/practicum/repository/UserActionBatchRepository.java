@@ -0,0 +1,10 @@
+package ru.practicum.repository;
+
+import ru.practicum.model.UserAction;
+
+import java.util.Collection;
+
+public interface UserActionBatchRepository {
+
+    void saveBatch(Collection<UserAction> userActions);
+}
@@ -0,0 +1,52 @@
+package ru.practicum.repository;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Transactional;
+import ru.practicum.model.UserAction;
+
+import java.sql.Timestamp;
+import java.util.Collection;
+
+/**
+ * Upserts a batch of user actions keeping the greater weight, while the action type and time
+ * are taken from the incoming row, as the per-record save did. The upsert depends on the database,
+ * see {@link SqlDialects}.
+ */
+public class UserActionBatchRepositoryImpl implements UserActionBatchRepository {
+    private static final String POSTGRESQL_UPSERT_SQL = "INSERT INTO user_action " +
+            "(user_id, event_id, action_type, created, weight) VALUES (?, ?, ?, ?, ?) " +
+            "ON CONFLICT (user_id, event_id) DO UPDATE SET action_type = excluded.action_type, " +
+            "created = excluded.created, weight = GREATEST(user_action.weight, excluded.weight)";
+    private static final String MERGE_UPSERT_SQL = "MERGE INTO user_action ua " +
+            "USING (SELECT CAST(? AS BIGINT) AS user_id, CAST(? AS BIGINT) AS event_id, " +
+            "CAST(? AS VARCHAR(20)) AS action_type, CAST(? AS TIMESTAMP) AS created, " +
+            "CAST(? AS DOUBLE PRECISION) AS weight) s " +
+            "ON ua.user_id = s.user_id AND ua.event_id = s.event_id " +
+            "WHEN MATCHED THEN UPDATE SET action_type = s.action_type, created = s.created, " +
+            "weight = GREATEST(ua.weight, s.weight) " +
+            "WHEN NOT MATCHED THEN INSERT (user_id, event_id, action_type, created, weight) " +
+            "VALUES (s.user_id, s.event_id, s.action_type, s.created, s.weight)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String upsertSql;
+
+    public UserActionBatchRepositoryImpl(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.upsertSql = SqlDialects.isPostgreSql(jdbcTemplate) ? POSTGRESQL_UPSERT_SQL : MERGE_UPSERT_SQL;
+    }
+
+    @Override
+    @Transactional
+    public void saveBatch(Collection<UserAction> userActions) {
+        if (userActions.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate(upsertSql, userActions, userActions.size(), (ps, userAction) -> {
+            ps.setLong(1, userAction.getUserId());
+            ps.setLong(2, userAction.getEventId());
+            ps.setString(3, userAction.getActionType().name());
+            ps.setTimestamp(4, Timestamp.from(userAction.getCreated()));
+            ps.setDouble(5, userAction.getWeight());
+        });
+    }
+}
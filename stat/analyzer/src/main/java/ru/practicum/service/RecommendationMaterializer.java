@@ -0,0 +1,224 @@
+package ru.practicum.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.EqualsAndHashCode;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import ru.practicum.cache.UserProfileCache;
+import ru.practicum.config.AnalyzerProperties;
+import ru.practicum.grpc.stat.request.RecommendedEventProto;
+import ru.practicum.grpc.stat.request.UserPredictionsRequestProto;
+import ru.practicum.model.EventSimilarity;
+import ru.practicum.model.UserAction;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Materialised recommendations of active users. A request that misses is computed on-line and
+ * remembered; a background job then recomputes only the views whose user got new actions or whose
+ * source or recommended events got new similarities, and drops views that were not requested for
+ * {@code idleTimeout}. {@code maxAge} bounds how stale a view may get through changes the job cannot
+ * see, such as similarities between a candidate and older events of the user. At most {@code maxUsers}
+ * views are kept, the least recently requested are evicted; all access to them is synchronized on the
+ * map, while views are computed outside the lock.
+ */
+@Slf4j
+@Component
+public class RecommendationMaterializer {
+    private final RecommendationService recommendationService;
+    private final UserProfileCache userProfileCache;
+    private final AnalyzerProperties.Materialization properties;
+    private final Map<ViewKey, View> views;
+    private final Set<Long> changedUsers = ConcurrentHashMap.newKeySet();
+    private final Set<Long> changedEvents = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService scheduler;
+
+    public RecommendationMaterializer(RecommendationService recommendationService,
+                                      UserProfileCache userProfileCache,
+                                      AnalyzerProperties analyzerProperties) {
+        this.recommendationService = recommendationService;
+        this.userProfileCache = userProfileCache;
+        this.properties = analyzerProperties.getMaterialization();
+        int maxUsers = properties.getMaxUsers();
+        this.views = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ViewKey, View> eldest) {
+                return size() > maxUsers;
+            }
+        };
+        if (properties.isEnabled()) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(
+                    runnable -> new Thread(runnable, "RecommendationRefreshThread"));
+            long interval = properties.getRefreshInterval().toMillis();
+            scheduler.scheduleWithFixedDelay(this::refreshSafely, interval, interval, TimeUnit.MILLISECONDS);
+        } else {
+            scheduler = null;
+        }
+    }
+
+    public List<RecommendedEventProto> getRecommendations(UserPredictionsRequestProto request) {
+        if (!properties.isEnabled()) {
+            return recommendationService.generateRecommendationsForUser(request);
+        }
+        ViewKey key = new ViewKey(request.getUserId(), request.getMaxResults());
+        long now = System.currentTimeMillis();
+        View view;
+        synchronized (views) {
+            view = views.get(key);
+        }
+        if (view != null) {
+            view.lastAccess = now;
+            return view.recommendations;
+        }
+        view = compute(key, now);
+        synchronized (views) {
+            views.putIfAbsent(key, view);
+        }
+        return view.recommendations;
+    }
+
+    public void onUserActions(Collection<UserAction> userActions) {
+        if (properties.isEnabled()) {
+            userActions.forEach(userAction -> changedUsers.add(userAction.getUserId()));
+        }
+    }
+
+    public void onSimilarities(Collection<EventSimilarity> upserted, Collection<EventSimilarity> removed) {
+        if (properties.isEnabled()) {
+            for (EventSimilarity similarity : upserted) {
+                changedEvents.add(similarity.getAeventId());
+                changedEvents.add(similarity.getBeventId());
+            }
+            for (EventSimilarity similarity : removed) {
+                changedEvents.add(similarity.getAeventId());
+                changedEvents.add(similarity.getBeventId());
+            }
+        }
+    }
+
+    public int size() {
+        synchronized (views) {
+            return views.size();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private void refreshSafely() {
+        try {
+            refresh();
+        } catch (Exception e) {
+            log.warn("Ошибка при обновлении материализованных рекомендаций", e);
+        }
+    }
+
+    private void refresh() {
+        Set<Long> users = drain(changedUsers);
+        Set<Long> events = drain(changedEvents);
+        long now = System.currentTimeMillis();
+        long idleTimeout = properties.getIdleTimeout().toMillis();
+        long maxAge = properties.getMaxAge().toMillis();
+        int dropped = 0;
+        Map<ViewKey, View> stale = new HashMap<>();
+        synchronized (views) {
+            for (Iterator<Map.Entry<ViewKey, View>> iterator = views.entrySet().iterator(); iterator.hasNext(); ) {
+                Map.Entry<ViewKey, View> entry = iterator.next();
+                View view = entry.getValue();
+                if (now - view.lastAccess > idleTimeout) {
+                    iterator.remove();
+                    dropped++;
+                } else if (users.contains(entry.getKey().userId) || view.dependsOnAny(events)
+                        || now - view.computedAt > maxAge) {
+                    stale.put(entry.getKey(), view);
+                }
+            }
+        }
+        for (Map.Entry<ViewKey, View> entry : stale.entrySet()) {
+            View view = entry.getValue();
+            View updated = compute(entry.getKey(), view.lastAccess);
+            synchronized (views) {
+                views.replace(entry.getKey(), view, updated);
+            }
+        }
+        if (!stale.isEmpty() || dropped > 0) {
+            log.debug("Материализованные рекомендации: обновлено {}, удалено {}, всего {}",
+                    stale.size(), dropped, size());
+        }
+    }
+
+    private View compute(ViewKey key, long lastAccess) {
+        long computedAt = System.currentTimeMillis();
+        UserPredictionsRequestProto request = UserPredictionsRequestProto.newBuilder()
+                .setUserId(key.userId)
+                .setMaxResults(key.maxResults)
+                .build();
+        List<RecommendedEventProto> recommendations = recommendationService.generateRecommendationsForUser(request);
+        long[] sourceEvents = userProfileCache.get(key.userId).recentEventIds(key.maxResults);
+        long[] dependencies = new long[sourceEvents.length + recommendations.size()];
+        System.arraycopy(sourceEvents, 0, dependencies, 0, sourceEvents.length);
+        for (int i = 0; i < recommendations.size(); i++) {
+            dependencies[sourceEvents.length + i] = recommendations.get(i).getEventId();
+        }
+        return new View(recommendations, dependencies, computedAt, lastAccess);
+    }
+
+    private static Set<Long> drain(Set<Long> changed) {
+        Set<Long> drained = new HashSet<>();
+        for (Iterator<Long> iterator = changed.iterator(); iterator.hasNext(); ) {
+            drained.add(iterator.next());
+            iterator.remove();
+        }
+        return drained;
+    }
+
+    @EqualsAndHashCode
+    @RequiredArgsConstructor
+    private static final class ViewKey {
+        private final long userId;
+        private final long maxResults;
+    }
+
+    private static final class View {
+        private final List<RecommendedEventProto> recommendations;
+        private final long[] dependencies;
+        private final long computedAt;
+        private volatile long lastAccess;
+
+        private View(List<RecommendedEventProto> recommendations, long[] dependencies, long computedAt,
+                     long lastAccess) {
+            this.recommendations = recommendations;
+            this.dependencies = dependencies;
+            this.computedAt = computedAt;
+            this.lastAccess = lastAccess;
+        }
+
+        private boolean dependsOnAny(Set<Long> events) {
+            if (events.isEmpty()) {
+                return false;
+            }
+            for (long eventId : dependencies) {
+                if (events.contains(eventId)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -5,16 +5,19 @@ import ru.practicum.grpc.stat.request.InteractionsCountRequestProto;
 import ru.practicum.grpc.stat.request.RecommendedEventProto;
 import ru.practicum.grpc.stat.request.SimilarEventsRequestProto;
 import ru.practicum.grpc.stat.request.UserPredictionsRequestProto;
+import ru.practicum.model.UserAction;
 
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 
 public interface RecommendationService {
 
     List<RecommendedEventProto> generateRecommendationsForUser(UserPredictionsRequestProto request);
 
-    List<RecommendedEventProto> getSimilarEvents(SimilarEventsRequestProto request);
+    Iterator<RecommendedEventProto> getSimilarEvents(SimilarEventsRequestProto request);
 
     List<RecommendedEventProto> getInteractionsCount(InteractionsCountRequestProto request);
 
-    void saveUserAction(UserActionAvro userActionAvro);
+    List<UserAction> saveUserActions(Collection<UserActionAvro> userActionAvros);
 }
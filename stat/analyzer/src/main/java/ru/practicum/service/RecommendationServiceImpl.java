@@ -4,20 +4,21 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import ru.practicum.cache.EventNeighbours;
+import ru.practicum.cache.SimilarityGraph;
+import ru.practicum.cache.UserProfile;
+import ru.practicum.cache.UserProfileCache;
 import ru.practicum.ewm.stats.avro.UserActionAvro;
 import ru.practicum.grpc.stat.request.InteractionsCountRequestProto;
 import ru.practicum.grpc.stat.request.RecommendedEventProto;
 import ru.practicum.grpc.stat.request.SimilarEventsRequestProto;
 import ru.practicum.grpc.stat.request.UserPredictionsRequestProto;
-import ru.practicum.model.EventSimilarity;
 import ru.practicum.model.RecommendedEvent;
 import ru.practicum.model.UserAction;
-import ru.practicum.repository.EventSimilarityRepository;
 import ru.practicum.repository.UserActionRepository;
 import ru.practicum.mapper.Mapper;
 
 import java.util.*;
-import java.util.stream.Collectors;
 
 import static java.util.Collections.emptyList;
 
@@ -27,46 +28,55 @@ import static java.util.Collections.emptyList;
 @Transactional(readOnly = true)
 public class RecommendationServiceImpl implements RecommendationService {
     private static final long EVENT_COUNT_PREDICTION = 5;
-    private final EventSimilarityRepository eventSimilarityRepository;
     private final UserActionRepository userActionRepository;
+    private final SimilarityGraph similarityGraph;
+    private final UserProfileCache userProfileCache;
 
     @Override
     public List<RecommendedEventProto> generateRecommendationsForUser(UserPredictionsRequestProto request) {
-        List<UserAction> lastUserEvents = userActionRepository.findByUserIdOrderByCreatedDescLimitedTo(
-                request.getUserId(), request.getMaxResults()
-        );
+        UserProfile profile = userProfileCache.get(request.getUserId());
+        long[] lastUserEvents = profile.recentEventIds(request.getMaxResults());
 
-        if (lastUserEvents.isEmpty()) {
+        if (lastUserEvents.length == 0) {
             return emptyList();
         }
 
         List<RecommendedEvent> recommendedEvents = new ArrayList<>();
-        lastUserEvents.forEach(event -> recommendedEvents.addAll(
-                getSimilarEvents(request.getUserId(), event.getEventId(), request.getMaxResults())
-                        .stream()
-                        .sorted(Comparator.comparingDouble(EventSimilarity::getScore).reversed())
-                        .limit(request.getMaxResults())
-                        .map(similarEvent -> genRecommendedEventFrom(similarEvent, event.getEventId()))
-                        .toList()));
+        for (long eventId : lastUserEvents) {
+            recommendedEvents.addAll(getSimilarEvents(profile, eventId, request.getMaxResults()));
+        }
 
         List<RecommendedEvent> limitRecommendedEvents = recommendedEvents.stream()
                 .sorted(Comparator.comparingDouble(RecommendedEvent::getScore).reversed())
                 .limit(request.getMaxResults())
                 .toList();
-        log.info("RecommendedEvents: {}", recommendedEvents);
-        limitRecommendedEvents.forEach(
-                event -> event.setScore(getPrediction(event.getEventId(), request.getUserId()))
-        );
+        log.debug("RecommendedEvents: {}", recommendedEvents);
+        long[] candidates = limitRecommendedEvents.stream().mapToLong(RecommendedEvent::getEventId).toArray();
+        double[] predictions = predict(candidates, profile);
+        for (int i = 0; i < candidates.length; i++) {
+            limitRecommendedEvents.get(i).setScore(predictions[i]);
+        }
         return limitRecommendedEvents.stream()
                 .map(Mapper::mapToRecommendedEventProto)
                 .toList();
     }
 
     @Override
-    public List<RecommendedEventProto> getSimilarEvents(SimilarEventsRequestProto request) {
-        return getSimilarEvents(request.getUserId(), request.getEventId(), request.getMaxResults()).stream()
-                .map(event -> genRecommendedEventProtoFrom(event, request.getEventId()))
-                .toList();
+    public Iterator<RecommendedEventProto> getSimilarEvents(SimilarEventsRequestProto request) {
+        UserProfile profile = userProfileCache.get(request.getUserId());
+        SimilarEvents similarEvents = new SimilarEvents(similarityGraph.getNeighbours(request.getEventId()), profile,
+                request.getEventId(), request.getMaxResults());
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return similarEvents.hasNext();
+            }
+
+            @Override
+            public RecommendedEventProto next() {
+                return Mapper.mapToRecommendedEventProto(similarEvents.next());
+            }
+        };
     }
 
     @Override
@@ -77,87 +87,106 @@ public class RecommendationServiceImpl implements RecommendationService {
                 .toList();
     }
 
+    /**
+     * Coalesces the batch to one row per (user, event) with the greatest weight and the latest
+     * action type and time, then writes it with a single batch upsert.
+     */
     @Override
     @Transactional
-    public void saveUserAction(UserActionAvro userActionAvro) {
-        UserAction userAction = Mapper.mapToUserAction(userActionAvro);
-        log.info("Saving UserAction: userId={}, eventId={}, type={}, weight={}",
-                userAction.getUserId(), userAction.getEventId(), userAction.getActionType(), userAction.getWeight());
-
-        Optional<UserAction> oldUserAction = userActionRepository.findByUserIdAndEventId(
-                userAction.getUserId(), userAction.getEventId()
-        );
-
-        if (oldUserAction.isPresent()) {
-            log.info("Updating existing UserAction: oldWeight={}", oldUserAction.get().getWeight());
-            userAction.setId(oldUserAction.get().getId());
-            if (userAction.getWeight() < oldUserAction.get().getWeight()) {
-                userAction.setWeight(oldUserAction.get().getWeight());
+    public List<UserAction> saveUserActions(Collection<UserActionAvro> userActionAvros) {
+        Map<Long, Map<Long, UserAction>> userActions = new TreeMap<>();
+        for (UserActionAvro userActionAvro : userActionAvros) {
+            UserAction userAction = Mapper.mapToUserAction(userActionAvro);
+            UserAction previous = userActions.computeIfAbsent(userAction.getUserId(), id -> new TreeMap<>())
+                    .put(userAction.getEventId(), userAction);
+            if (previous != null && previous.getWeight() > userAction.getWeight()) {
+                userAction.setWeight(previous.getWeight());
             }
         }
 
-        UserAction savedAction = userActionRepository.save(userAction);
-        log.info("Saved UserAction: id={}, weight={}", savedAction.getId(), savedAction.getWeight());
+        List<UserAction> batch = new ArrayList<>(userActionAvros.size());
+        userActions.values().forEach(eventActions -> batch.addAll(eventActions.values()));
+        userActionRepository.saveBatch(batch);
+        log.debug("Saved {} user actions from {} records", batch.size(), userActionAvros.size());
+        return batch;
     }
 
-    private RecommendedEvent genRecommendedEventFrom(EventSimilarity eventSimilarity, Long eventId) {
-        Long recommendedEventId = Objects.equals(eventSimilarity.getAeventId(), eventId) ?
-                eventSimilarity.getBeventId() : eventSimilarity.getAeventId();
-
-        return RecommendedEvent.builder()
-                .eventId(recommendedEventId)
-                .score(eventSimilarity.getScore())
-                .build();
-    }
-
-    private RecommendedEventProto genRecommendedEventProtoFrom(EventSimilarity eventSimilarity, Long eventId) {
-        Long recommendedEventId = Objects.equals(eventSimilarity.getAeventId(), eventId) ?
-                eventSimilarity.getBeventId() : eventSimilarity.getAeventId();
-
-        return RecommendedEventProto.newBuilder()
-                .setEventId(recommendedEventId)
-                .setScore(eventSimilarity.getScore())
-                .build();
-    }
-
-    private List<EventSimilarity> getSimilarEvents(Long userId, Long eventId, Long limit) {
-        List<EventSimilarity> events = eventSimilarityRepository.findAllByEvent(eventId);
-        List<Long> actions = userActionRepository.findAllByUserId(userId).stream()
-                .map(UserAction::getEventId).toList();
-
-        List<EventSimilarity> result = events.stream()
-                .filter(event -> !(actions.contains(event.getAeventId()) && actions.contains(event.getBeventId())))
-                .sorted(Comparator.comparingDouble(EventSimilarity::getScore).reversed())
-                .limit(limit)
-                .toList();
-
-        log.info("similar events are {}", result);
+    private List<RecommendedEvent> getSimilarEvents(UserProfile profile, long eventId, long limit) {
+        List<RecommendedEvent> result = new ArrayList<>();
+        new SimilarEvents(similarityGraph.getNeighbours(eventId), profile, eventId, limit)
+                .forEachRemaining(result::add);
+        log.debug("similar events are {}", result);
         return result;
     }
 
-    private double getPrediction(Long eventId, Long userId) {
-        double prediction = 0.0;
-
-        Map<Long, Double> ratedEvents = userActionRepository.findAllByUserId(userId).stream()
-                .collect(Collectors.toMap(UserAction::getEventId, UserAction::getWeight));
-        List<RecommendedEvent> similarEvents = eventSimilarityRepository.findAllByEventAndEventIdInLimitedTo(
-                        eventId, ratedEvents.keySet().stream().toList(), EVENT_COUNT_PREDICTION)
-                .stream()
-                .map(eventSimilarity -> genRecommendedEventFrom(eventSimilarity, eventId))
-                .toList();
-
-        double weightedSum = 0.0;
-        double similaritySum = 0.0;
+    /**
+     * Predicts the user's weight for every candidate as the average of the weights of the user's events
+     * most similar to it, weighted by similarity. Neighbour lists come from the similarity graph, which
+     * loads all missing candidates with one query.
+     */
+    private double[] predict(long[] candidates, UserProfile profile) {
+        EventNeighbours[] candidateNeighbours = similarityGraph.getNeighbours(candidates);
+        double[] predictions = new double[candidates.length];
+        for (int i = 0; i < candidates.length; i++) {
+            EventNeighbours neighbours = candidateNeighbours[i];
+            double weightedSum = 0.0;
+            double similaritySum = 0.0;
+            int used = 0;
+            for (int j = 0; j < neighbours.size() && used < EVENT_COUNT_PREDICTION; j++) {
+                long neighbourId = neighbours.getEventId(j);
+                if (profile.contains(neighbourId)) {
+                    weightedSum += neighbours.getScore(j) * profile.getWeight(neighbourId, 0.0);
+                    similaritySum += neighbours.getScore(j);
+                    used++;
+                }
+            }
+            predictions[i] = similaritySum != 0 ? weightedSum / similaritySum : 0.0;
+        }
+        return predictions;
+    }
 
-        for (RecommendedEvent event : similarEvents) {
-            weightedSum += event.getScore() * ratedEvents.get(event.getEventId());
-            similaritySum += event.getScore();
+    /**
+     * Walks the neighbours of an event best first, skipping those the user has already interacted with
+     * together with the event itself, so callers can stop after the first few without computing the rest.
+     */
+    private static final class SimilarEvents implements Iterator<RecommendedEvent> {
+        private final EventNeighbours neighbours;
+        private final UserProfile profile;
+        private final boolean eventSeen;
+        private final long limit;
+        private int position;
+        private long returned;
+
+        private SimilarEvents(EventNeighbours neighbours, UserProfile profile, long eventId, long limit) {
+            this.neighbours = neighbours;
+            this.profile = profile;
+            this.eventSeen = profile.contains(eventId);
+            this.limit = limit;
         }
 
-        if (similaritySum != 0) {
-            prediction = weightedSum / similaritySum;
+        @Override
+        public boolean hasNext() {
+            if (returned >= limit) {
+                return false;
+            }
+            while (position < neighbours.size() && eventSeen && profile.contains(neighbours.getEventId(position))) {
+                position++;
+            }
+            return position < neighbours.size();
         }
 
-        return prediction;
+        @Override
+        public RecommendedEvent next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            RecommendedEvent event = RecommendedEvent.builder()
+                    .eventId(neighbours.getEventId(position))
+                    .score(neighbours.getScore(position))
+                    .build();
+            position++;
+            returned++;
+            return event;
+        }
     }
-}
\ No newline at end of file
+}
@@ -16,4 +16,6 @@ create TABLE IF NOT EXISTS event_similarity (
 	score DOUBLE PRECISION,
 	CONSTRAINT pk_event_similarity PRIMARY KEY (id),
 	CONSTRAINT unique_event_similarity_aevent_id_bevent_id UNIQUE (aevent_id, bevent_id)
-);
\ No newline at end of file
+);
+
+create INDEX IF NOT EXISTS idx_event_similarity_bevent_id ON event_similarity (bevent_id);
@@ -0,0 +1,24 @@
+package ru.practicum.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "collector")
+public class CollectorProperties {
+    private int maxInFlight = 10_000;
+    private Dedup dedup = new Dedup();
+
+    @Getter
+    @Setter
+    public static class Dedup {
+        private boolean enabled;
+        private Duration window = Duration.ofMinutes(1);
+        private int maxSize = 100_000;
+        private int shards = 16;
+    }
+}
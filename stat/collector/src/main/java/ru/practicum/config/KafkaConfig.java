@@ -1,5 +1,6 @@
 package ru.practicum.config;
 
+import io.micrometer.core.instrument.binder.kafka.KafkaClientMetrics;
 import lombok.Getter;
 import org.apache.avro.specific.SpecificRecordBase;
 import org.apache.kafka.clients.producer.KafkaProducer;
@@ -28,6 +29,14 @@ public class KafkaConfig {
         properties.put(ProducerConfig.CLIENT_ID_CONFIG, kafkaProperties.getClientIdConfig());
         properties.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, kafkaProperties.getProducerKeySerializer());
         properties.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, kafkaProperties.getProducerValueSerializer());
+        if (kafkaProperties.getProducerMaxBlockMs() != null) {
+            properties.put(ProducerConfig.MAX_BLOCK_MS_CONFIG, kafkaProperties.getProducerMaxBlockMs());
+        }
         return new KafkaProducer<>(properties);
     }
+
+    @Bean
+    public KafkaClientMetrics producerMetrics(Producer<Long, SpecificRecordBase> producer) {
+        return new KafkaClientMetrics(producer);
+    }
 }
@@ -12,5 +12,6 @@ public class KafkaConfigProperties {
     private String clientIdConfig;
     private String producerKeySerializer;
     private String producerValueSerializer;
+    private Long producerMaxBlockMs;
     private String userActionTopic;
 }
\ No newline at end of file
@@ -0,0 +1,7 @@
+package ru.practicum.error.exception;
+
+public class OverloadedException extends RuntimeException {
+    public OverloadedException(String message) {
+        super(message);
+    }
+}
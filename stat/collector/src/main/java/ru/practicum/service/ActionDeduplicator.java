@@ -0,0 +1,149 @@
+package ru.practicum.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.EqualsAndHashCode;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import ru.practicum.action.model.ActionType;
+import ru.practicum.action.model.UserAction;
+import ru.practicum.config.CollectorProperties;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers which (user, event, action type) triples were sent within the last {@code window} and
+ * suppresses repeats: the aggregator keeps only the greatest weight per user and event, so a repeated
+ * action carries no new information. The keys are split into shards, each an LRU map bounded by
+ * {@code maxSize / shards} entries, so the memory stays bounded and threads rarely contend.
+ * <p>
+ * Each remembered action keeps the outcome of its send. A repeat that arrives while the send is still
+ * in flight gets that outcome instead of an immediate success, so it is not lost if the send fails.
+ */
+@Component
+public class ActionDeduplicator implements MeterBinder {
+    private final boolean enabled;
+    private final long windowMillis;
+    private final Shard[] shards;
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong suppressed = new AtomicLong();
+
+    public ActionDeduplicator(CollectorProperties properties) {
+        CollectorProperties.Dedup dedup = properties.getDedup();
+        this.enabled = dedup.isEnabled();
+        this.windowMillis = dedup.getWindow().toMillis();
+        int shardCount = Math.max(1, dedup.getShards());
+        int shardSize = Math.max(1, dedup.getMaxSize() / shardCount);
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(shardSize);
+        }
+    }
+
+    /**
+     * Remembers the action with the future that will report the outcome of its send, unless the same
+     * action was already accepted within the window.
+     *
+     * @return the outcome of the same action accepted earlier, or null if this one is new and must be sent
+     */
+    public CompletableFuture<Void> putIfNew(UserAction userAction, CompletableFuture<Void> outcome) {
+        received.incrementAndGet();
+        if (!enabled) {
+            return null;
+        }
+        Key key = new Key(userAction.getUserId(), userAction.getEventId(), userAction.getActionType());
+        long now = System.currentTimeMillis();
+        Shard shard = shardOf(key);
+        synchronized (shard) {
+            Seen seen = shard.get(key);
+            if (seen != null && now - seen.at < windowMillis) {
+                suppressed.incrementAndGet();
+                return seen.outcome;
+            }
+            shard.put(key, new Seen(now, outcome));
+            return null;
+        }
+    }
+
+    /**
+     * Forgets an accepted action that could not be delivered, so that a retry is not suppressed. Only
+     * the entry holding {@code outcome} is removed, not a newer one for the same action.
+     */
+    public void forget(UserAction userAction, CompletableFuture<Void> outcome) {
+        if (!enabled) {
+            return;
+        }
+        Key key = new Key(userAction.getUserId(), userAction.getEventId(), userAction.getActionType());
+        Shard shard = shardOf(key);
+        synchronized (shard) {
+            Seen seen = shard.get(key);
+            if (seen != null && seen.outcome == outcome) {
+                shard.remove(key);
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                size += shard.size();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("collector.actions.received", received, AtomicLong::get)
+                .description("Количество действий пользователей, полученных collector")
+                .register(registry);
+        FunctionCounter.builder("collector.actions.suppressed", suppressed, AtomicLong::get)
+                .description("Количество повторных действий пользователей, не отправленных в Kafka")
+                .register(registry);
+        Gauge.builder("collector.dedup.entries", this, ActionDeduplicator::size)
+                .description("Количество запомненных действий в кэше дедупликации")
+                .register(registry);
+    }
+
+    private Shard shardOf(Key key) {
+        return shards[Math.floorMod(key.hashCode(), shards.length)];
+    }
+
+    @EqualsAndHashCode
+    @RequiredArgsConstructor
+    private static final class Key {
+        private final long userId;
+        private final long eventId;
+        private final ActionType actionType;
+    }
+
+    private static final class Seen {
+        private final long at;
+        private final CompletableFuture<Void> outcome;
+
+        private Seen(long at, CompletableFuture<Void> outcome) {
+            this.at = at;
+            this.outcome = outcome;
+        }
+    }
+
+    private static final class Shard extends LinkedHashMap<Key, Seen> {
+        private final int maxSize;
+
+        private Shard(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Seen> eldest) {
+            return size() > maxSize;
+        }
+    }
+}
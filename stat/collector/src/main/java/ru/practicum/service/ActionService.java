@@ -2,8 +2,22 @@ package ru.practicum.service;
 
 
 import ru.practicum.action.model.UserAction;
+import ru.practicum.error.exception.OverloadedException;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public interface ActionService {
 
     void collectUserAction(UserAction userAction);
+
+    /**
+     * Sends all actions to Kafka at once. Actions sent before a failure are not withdrawn, so on any
+     * error, thrown or reported through the future, the batch may be partly in Kafka.
+     *
+     * @return future completed when every action has been acknowledged by the broker, or failed with
+     * the first send error
+     * @throws OverloadedException if the batch does not fit into the in-flight limit; nothing is sent
+     */
+    CompletableFuture<Void> collectUserActions(List<UserAction> userActions);
 }
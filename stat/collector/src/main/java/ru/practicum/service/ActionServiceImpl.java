@@ -1,25 +1,62 @@
 package ru.practicum.service;
 
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import jakarta.annotation.PreDestroy;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.avro.specific.SpecificRecordBase;
 import org.apache.kafka.clients.producer.Producer;
 import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
 import org.springframework.stereotype.Service;
 import ru.practicum.action.mapper.UserActionMapper;
 import ru.practicum.action.model.UserAction;
+import ru.practicum.config.CollectorProperties;
 import ru.practicum.config.KafkaConfig;
+import ru.practicum.error.exception.OverloadedException;
 import ru.practicum.ewm.stats.avro.UserActionAvro;
+import ru.practicum.util.SampledLogger;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * At most {@code maxInFlight} actions may wait for a Kafka acknowledgement at once. When the broker slows
+ * down, new actions are rejected with {@link OverloadedException} right away instead of blocking gRPC
+ * threads in {@code producer.send} until the producer buffer frees up. Permits are taken only after the
+ * deduplicator has let an action through, so suppressed repeats are never rejected or counted as rejected.
+ */
 @Service
-@RequiredArgsConstructor
 @Slf4j
-public class ActionServiceImpl implements ActionService {
+public class ActionServiceImpl implements ActionService, MeterBinder {
+    private static final SampledLogger SAMPLED_LOG = new SampledLogger(log, Duration.ofSeconds(10));
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
     private final Producer<Long, SpecificRecordBase> producer;
     private final KafkaConfig kafkaConfig;
+    private final ActionDeduplicator actionDeduplicator;
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+
+    public ActionServiceImpl(Producer<Long, SpecificRecordBase> producer,
+                             KafkaConfig kafkaConfig,
+                             ActionDeduplicator actionDeduplicator,
+                             CollectorProperties collectorProperties) {
+        this.producer = producer;
+        this.kafkaConfig = kafkaConfig;
+        this.actionDeduplicator = actionDeduplicator;
+        this.maxInFlight = Math.max(1, collectorProperties.getMaxInFlight());
+        this.inFlight = new Semaphore(maxInFlight);
+    }
 
     @Override
     public void collectUserAction(UserAction userAction) {
@@ -28,14 +65,119 @@ public class ActionServiceImpl implements ActionService {
         String topic = kafkaConfig.getKafkaProperties().getUserActionTopic();
         Objects.requireNonNull(topic, "Kafka topic is not configured!");
 
-        log.info("Sending UserAction to Kafka. Topic: {}, UserID: {}, EventID: {}",
+        SAMPLED_LOG.info("Sending UserAction to Kafka. Topic: {}, UserID: {}, EventID: {}",
                 topic, userAction.getUserId(), userAction.getEventId());
 
-        UserActionAvro avroRecord = UserActionMapper.toUserActionAvro(userAction);
-        send(topic, userAction.getUserId(), userAction.getTimestamp().toEpochMilli(), avroRecord);
+        CompletableFuture<Void> outcome = new CompletableFuture<>();
+        if (actionDeduplicator.putIfNew(userAction, outcome) != null) {
+            log.debug("Повторное действие не отправлено в Kafka: {}", userAction);
+            return;
+        }
+        try {
+            acquire(1);
+        } catch (OverloadedException e) {
+            fail(userAction, outcome, e);
+            throw e;
+        }
+        sendUserAction(topic, userAction, outcome);
+    }
+
+    /**
+     * Duplicates are filtered out first, so only the actions that will actually be sent take permits.
+     * A duplicate of an action whose send is still in flight waits for that send.
+     */
+    @Override
+    public CompletableFuture<Void> collectUserActions(List<UserAction> userActions) {
+        Objects.requireNonNull(userActions, "UserActions cannot be null");
+
+        String topic = kafkaConfig.getKafkaProperties().getUserActionTopic();
+        Objects.requireNonNull(topic, "Kafka topic is not configured!");
+
+        log.debug("Sending {} UserActions to Kafka. Topic: {}", userActions.size(), topic);
+
+        CompletableFuture<?>[] outcomes = new CompletableFuture<?>[userActions.size()];
+        List<UserAction> newActions = new ArrayList<>(userActions.size());
+        List<CompletableFuture<Void>> newOutcomes = new ArrayList<>(userActions.size());
+        for (int i = 0; i < outcomes.length; i++) {
+            UserAction userAction = userActions.get(i);
+            CompletableFuture<Void> outcome = new CompletableFuture<>();
+            CompletableFuture<Void> previous = actionDeduplicator.putIfNew(userAction, outcome);
+            if (previous != null) {
+                outcomes[i] = previous;
+            } else {
+                outcomes[i] = outcome;
+                newActions.add(userAction);
+                newOutcomes.add(outcome);
+            }
+        }
+
+        try {
+            acquire(newActions.size());
+        } catch (OverloadedException e) {
+            failAll(newActions, newOutcomes, 0, e);
+            throw e;
+        }
+        for (int i = 0; i < newActions.size(); i++) {
+            try {
+                sendUserAction(topic, newActions.get(i), newOutcomes.get(i));
+            } catch (RuntimeException e) {
+                inFlight.release(newActions.size() - i - 1);
+                failAll(newActions, newOutcomes, i + 1, e);
+                throw e;
+            }
+        }
+        return CompletableFuture.allOf(outcomes);
+    }
+
+    /**
+     * Takes permits for a whole call at once, so a batch is either accepted in full or rejected. Only the
+     * actions that would be sent are counted as rejected.
+     */
+    private void acquire(int permits) {
+        if (permits > maxInFlight || !inFlight.tryAcquire(permits)) {
+            rejected.add(permits);
+            throw new OverloadedException("Превышен лимит неподтверждённых сообщений Kafka: " + maxInFlight);
+        }
+    }
+
+    /**
+     * Sends an action that was accepted by the deduplicator and reports the result through
+     * {@code outcome}. An action that fails to be sent is forgotten by the deduplicator, so a retry goes
+     * through. The caller's permit is released once Kafka answers.
+     */
+    private void sendUserAction(String topic, UserAction userAction, CompletableFuture<Void> outcome) {
+        try {
+            UserActionAvro avroRecord = UserActionMapper.toUserActionAvro(userAction);
+            send(topic, userAction.getUserId(), userAction.getTimestamp().toEpochMilli(), avroRecord)
+                    .whenComplete((metadata, exception) -> {
+                        if (exception != null) {
+                            fail(userAction, outcome, exception);
+                        } else {
+                            outcome.complete(null);
+                        }
+                    });
+        } catch (RuntimeException e) {
+            inFlight.release();
+            fail(userAction, outcome, e);
+            throw e;
+        }
     }
 
-    private void send(String topic, Long key, Long timestamp, SpecificRecordBase specificRecordBase) {
+    private void failAll(List<UserAction> userActions, List<CompletableFuture<Void>> outcomes, int from,
+                         Throwable cause) {
+        for (int i = from; i < userActions.size(); i++) {
+            fail(userActions.get(i), outcomes.get(i), cause);
+        }
+    }
+
+    private void fail(UserAction userAction, CompletableFuture<Void> outcome, Throwable cause) {
+        actionDeduplicator.forget(userAction, outcome);
+        outcome.completeExceptionally(cause);
+    }
+
+    private CompletableFuture<RecordMetadata> send(String topic, Long key, Long timestamp,
+                                                   SpecificRecordBase specificRecordBase) {
+        CompletableFuture<RecordMetadata> result = new CompletableFuture<>();
         ProducerRecord<Long, SpecificRecordBase> rec = new ProducerRecord<>(
                 topic,
                 null,
@@ -43,13 +185,33 @@ public class ActionServiceImpl implements ActionService {
                 key,
                 specificRecordBase);
         producer.send(rec, (metadata, exception) -> {
+            inFlight.release();
             if (exception != null) {
+                failed.increment();
                 log.error("Kafka: сообщение НЕ ОТПРАВЛЕНО, topic: {}", topic, exception);
+                result.completeExceptionally(exception);
             } else {
-                log.info("Kafka: сообщение УСПЕШНО отправлено, topic: {}, partition: {}, offset: {}",
-                        metadata.topic(), metadata.partition(), metadata.offset());
+                sent.increment();
+                result.complete(metadata);
             }
         });
+        return result;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("collector.actions.sent", sent, LongAdder::sum)
+                .description("Количество действий пользователей, подтверждённых Kafka")
+                .register(registry);
+        FunctionCounter.builder("collector.actions.failed", failed, LongAdder::sum)
+                .description("Количество действий пользователей, которые не удалось отправить в Kafka")
+                .register(registry);
+        FunctionCounter.builder("collector.actions.rejected", rejected, LongAdder::sum)
+                .description("Количество новых действий пользователей, отклонённых из-за перегрузки, без повторных")
+                .register(registry);
+        Gauge.builder("collector.actions.inflight", inFlight, semaphore -> maxInFlight - semaphore.availablePermits())
+                .description("Количество действий пользователей, ожидающих подтверждения Kafka")
+                .register(registry);
     }
 
     @PreDestroy
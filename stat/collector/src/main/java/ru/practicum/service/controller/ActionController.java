@@ -1,27 +1,89 @@
 package ru.practicum.service.controller;
 
 import com.google.protobuf.Empty;
+import io.grpc.Status;
 import io.grpc.stub.StreamObserver;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import net.devh.boot.grpc.server.service.GrpcService;
 import ru.practicum.action.mapper.UserActionMapper;
+import ru.practicum.action.model.UserAction;
+import ru.practicum.error.exception.OverloadedException;
 import ru.practicum.service.ActionService;
+import ru.practicum.grpc.stat.action.UserActionBatchProto;
 import ru.practicum.grpc.stat.action.UserActionProto;
 import ru.practicum.grpc.stat.collector.UserActionControllerGrpc;
+import ru.practicum.util.SampledLogger;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 @GrpcService
 @Slf4j
 @RequiredArgsConstructor
 public class ActionController extends UserActionControllerGrpc.UserActionControllerImplBase {
+    private static final SampledLogger SAMPLED_LOG = new SampledLogger(log, Duration.ofSeconds(10));
+
     private final ActionService actionService;
 
     @Override
     public void collectUserAction(UserActionProto request, StreamObserver<Empty> responseObserver) {
-        log.info("ActionController call collectUserAction for request = {}", request);
-        actionService.collectUserAction(UserActionMapper.map(request));
+        SAMPLED_LOG.info("ActionController call collectUserAction for request = {}", request);
+        try {
+            actionService.collectUserAction(UserActionMapper.map(request));
+        } catch (OverloadedException e) {
+            responseObserver.onError(resourceExhausted(e));
+            return;
+        }
 
         responseObserver.onNext(Empty.getDefaultInstance());
         responseObserver.onCompleted();
     }
+
+    /**
+     * Accepts the whole batch in one call and answers only after Kafka has acknowledged every action,
+     * so a client that got a response may drop its copy of the batch. An error does not roll anything
+     * back: part of the batch may already be in Kafka, so a client resending it relies on the consumers
+     * being idempotent.
+     */
+    @Override
+    public void collectUserActions(UserActionBatchProto request, StreamObserver<Empty> responseObserver) {
+        log.debug("ActionController call collectUserActions for {} actions", request.getActionsCount());
+        List<UserAction> userActions = request.getActionsList().stream()
+                .map(UserActionMapper::map)
+                .toList();
+        CompletableFuture<Void> sent;
+        try {
+            sent = actionService.collectUserActions(userActions);
+        } catch (OverloadedException e) {
+            responseObserver.onError(resourceExhausted(e));
+            return;
+        } catch (RuntimeException e) {
+            log.warn("Не удалось отправить {} действий пользователей в Kafka", userActions.size(), e);
+            responseObserver.onError(unavailable(e));
+            return;
+        }
+        sent.whenComplete((ignored, exception) -> {
+            if (exception != null) {
+                responseObserver.onError(unavailable(exception));
+            } else {
+                responseObserver.onNext(Empty.getDefaultInstance());
+                responseObserver.onCompleted();
+            }
+        });
+    }
+
+    private static RuntimeException resourceExhausted(OverloadedException e) {
+        return Status.RESOURCE_EXHAUSTED
+                .withDescription(e.getMessage())
+                .asRuntimeException();
+    }
+
+    private static RuntimeException unavailable(Throwable cause) {
+        return Status.UNAVAILABLE
+                .withDescription("Не удалось отправить действия пользователей в Kafka")
+                .withCause(cause)
+                .asRuntimeException();
+    }
 }
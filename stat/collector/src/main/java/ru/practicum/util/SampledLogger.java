@@ -0,0 +1,73 @@
+package ru.practicum.util;
+
+import org.slf4j.Logger;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Writes at most one INFO line per {@code interval} for a message repeated on a hot path and reports
+ * how many were skipped since the previous one. A skipped call costs a clock read and a counter increment
+ * and is never formatted, but its arguments are still evaluated by the caller: primitives are boxed and
+ * the varargs form allocates an array. Hot paths should use the fixed-arity forms with objects they
+ * already hold.
+ */
+public final class SampledLogger {
+    private final Logger log;
+    private final long intervalNanos;
+    private final AtomicLong nextAt;
+    private final LongAdder skipped = new LongAdder();
+
+    public SampledLogger(Logger log, Duration interval) {
+        this.log = log;
+        this.intervalNanos = interval.toNanos();
+        this.nextAt = new AtomicLong(System.nanoTime());
+    }
+
+    public void info(String format, Object arg) {
+        if (shouldWrite()) {
+            write(format, new Object[]{arg});
+        }
+    }
+
+    public void info(String format, Object arg1, Object arg2) {
+        if (shouldWrite()) {
+            write(format, new Object[]{arg1, arg2});
+        }
+    }
+
+    public void info(String format, Object arg1, Object arg2, Object arg3) {
+        if (shouldWrite()) {
+            write(format, new Object[]{arg1, arg2, arg3});
+        }
+    }
+
+    public void info(String format, Object... args) {
+        if (shouldWrite()) {
+            write(format, args);
+        }
+    }
+
+    private boolean shouldWrite() {
+        if (!log.isInfoEnabled()) {
+            return false;
+        }
+        long now = System.nanoTime();
+        long next = nextAt.get();
+        if (now - next < 0 || !nextAt.compareAndSet(next, now + intervalNanos)) {
+            skipped.increment();
+            return false;
+        }
+        return true;
+    }
+
+    private void write(String format, Object[] args) {
+        long skippedCount = skipped.sumThenReset();
+        if (skippedCount > 0) {
+            log.info(format + " (пропущено похожих сообщений: " + skippedCount + ")", args);
+        } else {
+            log.info(format, args);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package ru.practicum.ewm.stats;
+
+/**
+ * Key of the similarity topic records: the smaller event id in the high 32 bits, the other in the low
+ * 32 bits. Shared by the aggregator, which writes the key, and the analyzer, which reads it back.
+ */
+public final class PairKey {
+    private static final long MAX_ID = 0xFFFFFFFFL;
+
+    private PairKey() {
+    }
+
+    /**
+     * @return whether the event id can be packed into a pair key
+     */
+    public static boolean fits(long id) {
+        return id >= 0 && id <= MAX_ID;
+    }
+
+    public static long pack(long first, long second) {
+        checkId(first);
+        checkId(second);
+        return (first << Integer.SIZE) | second;
+    }
+
+    public static long first(long pairKey) {
+        return pairKey >>> Integer.SIZE;
+    }
+
+    public static long second(long pairKey) {
+        return pairKey & MAX_ID;
+    }
+
+    private static void checkId(long id) {
+        if (!fits(id)) {
+            throw new IllegalArgumentException("Идентификатор события " + id + " не помещается в 32 бита");
+        }
+    }
+}
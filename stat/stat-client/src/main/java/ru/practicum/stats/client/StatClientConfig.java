@@ -0,0 +1,9 @@
+package ru.practicum.stats.client;
+
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@EnableConfigurationProperties({StatClientProperties.class})
+public class StatClientConfig {
+}
@@ -0,0 +1,28 @@
+package ru.practicum.stats.client;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "stats.client")
+public class StatClientProperties {
+    private Buffer buffer = new Buffer();
+
+    /**
+     * With the buffer enabled user actions are queued and sent to the collector in batches from a
+     * background thread; when the queue is full new actions are dropped instead of blocking the caller.
+     */
+    @Getter
+    @Setter
+    public static class Buffer {
+        private boolean enabled = false;
+        private int capacity = 10000;
+        private int batchSize = 500;
+        private Duration flushInterval = Duration.ofMillis(200);
+        private Duration deadline = Duration.ofSeconds(5);
+    }
+}
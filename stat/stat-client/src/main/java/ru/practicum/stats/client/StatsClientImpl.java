@@ -26,6 +26,7 @@ import java.util.stream.StreamSupport;
 @Component
 @RequiredArgsConstructor
 public class StatsClientImpl implements StatClient {
+    private final UserActionBuffer userActionBuffer;
 
     @GrpcClient("collector")
     private UserActionControllerGrpc.UserActionControllerBlockingStub userClient;
@@ -35,7 +36,7 @@ public class StatsClientImpl implements StatClient {
 
     @Override
     public void registerUserAction(long eventId, long userId, ActionTypeProto actionType, Instant instant) {
-        log.info("statsClientImpl registerUserAction for eventId = {}, userId = {}, actionType = {}, time = {}",
+        log.debug("statsClientImpl registerUserAction for eventId = {}, userId = {}, actionType = {}, time = {}",
                 eventId, userId, actionType, instant);
 
         Timestamp timestamp = Timestamp.newBuilder()
@@ -48,6 +49,10 @@ public class StatsClientImpl implements StatClient {
                 .setActionType(actionType)
                 .setTimestamp(timestamp)
                 .build();
+        if (userActionBuffer.isEnabled()) {
+            userActionBuffer.offer(request);
+            return;
+        }
         log.info("statsClientImpl registerUserAction request = {}", request);
         userClient.collectUserAction(request);
     }
@@ -0,0 +1,158 @@
+package ru.practicum.stats.client;
+
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import net.devh.boot.grpc.client.inject.GrpcClient;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import ru.practicum.grpc.stat.action.UserActionBatchProto;
+import ru.practicum.grpc.stat.action.UserActionProto;
+import ru.practicum.grpc.stat.collector.UserActionControllerGrpc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded queue of user actions that a background thread sends to the collector in batches through
+ * {@code CollectUserActions}. Callers never wait for the collector: when the queue is full the actions
+ * are dropped and counted. A batch the collector turned away as unavailable or overloaded is put back
+ * into the queue, as far as it fits, and retried at the next flush; other errors drop the batch.
+ */
+@Slf4j
+@Component
+public class UserActionBuffer implements MeterBinder {
+    private final StatClientProperties.Buffer properties;
+    private final BlockingQueue<UserActionProto> queue;
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong requeued = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong flushNanos = new AtomicLong();
+    private ScheduledExecutorService scheduler;
+
+    @GrpcClient("collector")
+    private UserActionControllerGrpc.UserActionControllerBlockingStub userClient;
+
+    public UserActionBuffer(StatClientProperties statClientProperties) {
+        this.properties = statClientProperties.getBuffer();
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, properties.getCapacity()));
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    public void offer(UserActionProto userAction) {
+        if (!queue.offer(userAction)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void start() {
+        if (properties.isEnabled() && scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(
+                    runnable -> new Thread(runnable, "UserActionFlushThread"));
+            long interval = properties.getFlushInterval().toMillis();
+            scheduler.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            try {
+                if (!scheduler.awaitTermination(properties.getDeadline().toMillis(), TimeUnit.MILLISECONDS)) {
+                    scheduler.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            flush();
+        }
+    }
+
+    private void flush() {
+        int batchSize = Math.max(1, properties.getBatchSize());
+        List<UserActionProto> batch = new ArrayList<>(batchSize);
+        while (queue.drainTo(batch, batchSize) > 0) {
+            long start = System.nanoTime();
+            try {
+                userClient.withDeadlineAfter(properties.getDeadline().toMillis(), TimeUnit.MILLISECONDS)
+                        .collectUserActions(UserActionBatchProto.newBuilder().addAllActions(batch).build());
+                sent.addAndGet(batch.size());
+            } catch (StatusRuntimeException e) {
+                if (isRetryable(e.getStatus().getCode())) {
+                    requeue(batch, e);
+                    return;
+                }
+                dropped.addAndGet(batch.size());
+                log.warn("Не удалось отправить {} действий пользователей в collector", batch.size(), e);
+            } catch (Exception e) {
+                dropped.addAndGet(batch.size());
+                log.warn("Не удалось отправить {} действий пользователей в collector", batch.size(), e);
+            } finally {
+                flushes.incrementAndGet();
+                flushNanos.addAndGet(System.nanoTime() - start);
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Puts the batch back and ends the flush, so the collector gets a flush interval to recover.
+     */
+    private void requeue(List<UserActionProto> batch, StatusRuntimeException cause) {
+        int requeuedCount = 0;
+        for (UserActionProto userAction : batch) {
+            if (queue.offer(userAction)) {
+                requeuedCount++;
+            }
+        }
+        requeued.addAndGet(requeuedCount);
+        dropped.addAndGet(batch.size() - requeuedCount);
+        log.warn("Collector не принял {} действий пользователей ({}), в очередь возвращено {}",
+                batch.size(), cause.getStatus().getCode(), requeuedCount);
+    }
+
+    private static boolean isRetryable(Status.Code code) {
+        return code == Status.Code.UNAVAILABLE
+                || code == Status.Code.RESOURCE_EXHAUSTED
+                || code == Status.Code.DEADLINE_EXCEEDED;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("stats.client.actions.queued", queue, BlockingQueue::size)
+                .description("Количество действий пользователей, ожидающих отправки в collector")
+                .register(registry);
+        FunctionCounter.builder("stats.client.actions.sent", sent, AtomicLong::get)
+                .description("Количество действий пользователей, отправленных в collector")
+                .register(registry);
+        FunctionCounter.builder("stats.client.actions.dropped", dropped, AtomicLong::get)
+                .description("Количество действий пользователей, отброшенных из-за переполнения или ошибки")
+                .register(registry);
+        FunctionCounter.builder("stats.client.actions.requeued", requeued, AtomicLong::get)
+                .description("Количество действий пользователей, возвращённых в очередь после отказа collector")
+                .register(registry);
+        FunctionTimer.builder("stats.client.flush", this, buffer -> buffer.flushes.get(),
+                        buffer -> buffer.flushNanos.get(), TimeUnit.NANOSECONDS)
+                .description("Время отправки одного пакета действий пользователей")
+                .register(registry);
+    }
+}